@@ -0,0 +1,98 @@
+package box2dLight;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares scalar and Vector API intersection kernels casting one ray fan
+ * against random segments and circles, as a light does against the
+ * occluder index
+ *
+ * <p>Build box2dlights and box2dlights-vector with {@code mvn install},
+ * then run {@code mvn package} here and
+ * {@code java --add-modules jdk.incubator.vector -jar target/benchmarks.jar}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class IntersectionKernelBenchmark {
+
+	@Param({ "128", "512" })
+	int rays;
+
+	@Param({ "700" })
+	int primitives;
+
+	final IntersectionKernel scalar = new IntersectionKernel();
+	final IntersectionKernel vector = new VectorIntersectionKernel();
+
+	float[] offsetX;
+	float[] offsetY;
+	float[] fraction;
+	/** Primitive i is circle if i % 7 == 0, one sided edge if even **/
+	float[] ax, ay, bx, by;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(1);
+		offsetX = new float[rays];
+		offsetY = new float[rays];
+		fraction = new float[rays];
+		for (int i = 0; i < rays; i++) {
+			final double angle = 2 * Math.PI * i / rays;
+			offsetX[i] = (float)Math.cos(angle) * 20f;
+			offsetY[i] = (float)Math.sin(angle) * 20f;
+		}
+		ax = new float[primitives];
+		ay = new float[primitives];
+		bx = new float[primitives];
+		by = new float[primitives];
+		for (int i = 0; i < primitives; i++) {
+			ax[i] = random.nextFloat() * 40f - 20f;
+			ay[i] = random.nextFloat() * 40f - 20f;
+			bx[i] = random.nextFloat() * 40f - 20f;
+			by[i] = random.nextFloat() * 40f - 20f;
+		}
+	}
+
+	@Benchmark
+	public float[] scalar() {
+		return cast(scalar);
+	}
+
+	@Benchmark
+	public float[] vector() {
+		return cast(vector);
+	}
+
+	private float[] cast(IntersectionKernel kernel) {
+		Arrays.fill(fraction, 1f);
+		for (int i = 0; i < primitives; i++) {
+			if (i % 7 == 0) {
+				kernel.circle(0.5f, -0.5f, offsetX, offsetY, fraction, 0,
+						rays, ax[i], ay[i], Math.abs(bx[i]) * 0.1f);
+			} else {
+				kernel.segment(0.5f, -0.5f, offsetX, offsetY, fraction, 0,
+						rays, ax[i], ay[i], bx[i], by[i], (i & 1) == 0);
+			}
+		}
+		return fraction;
+	}
+
+}
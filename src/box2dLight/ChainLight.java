@@ -8,11 +8,11 @@ import com.badlogic.gdx.graphics.VertexAttribute;
 import com.badlogic.gdx.graphics.VertexAttributes.Usage;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Matrix3;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.Pools;
 
 /**
@@ -37,25 +37,59 @@ public class ChainLight extends Light {
 
 	protected final FloatArray segmentAngles = new FloatArray();
 	protected final FloatArray segmentLengths = new FloatArray();
+	/** Distance between rays and number of rays of each segment **/
+	protected final FloatArray segmentSpacings = new FloatArray();
+	protected final IntArray segmentRays = new IntArray();
+	
+	/** Segments edited since last update **/
+	int editedFrom = Integer.MAX_VALUE;
+	int editedTo = -1;
+	/** Rays changed by edits, recast even if light isn't dirty **/
+	int dirtyRayFrom = Integer.MAX_VALUE;
+	int dirtyRayTo = -1;
 
 	protected final float[] startX;
 	protected final float[] startY;
 	protected final float[] endX;
 	protected final float[] endY;
+	
+	/** Rays relative to attached body, world rays are derived from them **/
+	protected final float[] localStartX;
+	protected final float[] localStartY;
+	protected final float[] localEndX;
+	protected final float[] localEndY;
 
 	protected final Vector2 bodyPosition = new Vector2();
 	protected final Vector2 tmpEnd = new Vector2();
 	protected final Vector2 tmpStart = new Vector2();
 	protected final Vector2 tmpPerp = new Vector2();
 	protected final Vector2 tmpVec = new Vector2();
-
-	protected final Matrix3 zeroPosition = new Matrix3();
-	protected final Matrix3 rotateAroundZero = new Matrix3();
-	protected final Matrix3 restorePosition = new Matrix3();
+	
+	/** Chain calculation variables, owned so no pool is shared **/
+	private final Vector2 v1 = new Vector2();
+	private final Vector2 v2 = new Vector2();
+	private final Vector2 vSegmentStart = new Vector2();
+	private final Vector2 vDirection = new Vector2();
+	private final Vector2 vRayOffset = new Vector2();
+	// Spinors used to represent perpendicular angle of each segment
+	private final Spinor previousAngle = new Spinor();
+	private final Spinor currentAngle = new Spinor();
+	private final Spinor nextAngle = new Spinor();
+	// Spinors used to represent start, end and interpolated ray
+	// angles for a given segment
+	private final Spinor startAngle = new Spinor();
+	private final Spinor endAngle = new Spinor();
+	private final Spinor rayAngle = new Spinor();
 
 	protected final Rectangle chainLightBounds = new Rectangle();
 	protected final Rectangle rayHandlerBounds = new Rectangle();
 	
+	/** Bounds of rays of each segment as minX, minY, maxX and maxY **/
+	protected final FloatArray segmentBounds = new FloatArray();
+	boolean segmentBoundsValid = false;
+	/** Ray ranges overlapping the screen as (from, to) pairs **/
+	protected final IntArray visibleRays = new IntArray();
+	
 	/**
 	 * Creates chain light without vertices, they can be added any time later
 	 * 
@@ -113,6 +147,10 @@ public class ChainLight extends Light {
 		endY = new float[rays];
 		startX = new float[rays];
 		startY = new float[rays];
+		localEndX = new float[rays];
+		localEndY = new float[rays];
+		localStartX = new float[rays];
+		localStartY = new float[rays];
 		this.chain = (chain != null) ?
 					 new FloatArray(chain) : new FloatArray();
 		
@@ -132,14 +170,26 @@ public class ChainLight extends Light {
 	@Override
 	void update() {
 		if (dirty) {
-			updateChain();
-			applyAttachment();
-		} else {
-			updateBody();
+			distributeChain();
+		} else if (editedTo >= 0) {
+			updateEditedSegments();
 		}
+		updateBody();
 		
 		if (cull()) return;
-		if (staticLight && !dirty) return;
+		if ((staticLight || motionAware) && !dirty) {
+			if (dirtyRayTo >= 0) updateMesh(dirtyRayFrom, dirtyRayTo);
+			return;
+		}
+		
+		if (rayHandler.culling && !staticLight && !motionAware && !dirty) {
+			// rays are recast every frame, so off screen ones can wait
+			final int[] ranges = visibleRays.items;
+			for (int i = 0; i < visibleRays.size; i += 2) {
+				updateMesh(ranges[i], ranges[i + 1]);
+			}
+			return;
+		}
 		dirty = false;
 		
 		updateMesh();
@@ -150,12 +200,27 @@ public class ChainLight extends Light {
 		if (rayHandler.culling && culled) return;
 		
 		rayHandler.lightRenderedLastFrame++;
-		lightMesh.render(
-			rayHandler.lightShader, GL20.GL_TRIANGLE_STRIP, 0, vertexNum);
+		if (!rayHandler.culling) {
+			renderRays(0, rayNum);
+			return;
+		}
+		final int[] ranges = visibleRays.items;
+		for (int i = 0; i < visibleRays.size; i += 2) {
+			renderRays(ranges[i], ranges[i + 1]);
+		}
+	}
+	
+	/**
+	 * Renders part of the light strips between rays from (inclusive) and
+	 * to (exclusive)
+	 */
+	private void renderRays(int from, int to) {
+		lightMesh.render(rayHandler.lightShader, GL20.GL_TRIANGLE_STRIP,
+				from * 2, (to - from) * 2);
 		
 		if (soft && !xray) {
-			softShadowMesh.render(
-				rayHandler.lightShader, GL20.GL_TRIANGLE_STRIP, 0, vertexNum);
+			softShadowMesh.render(rayHandler.lightShader,
+				GL20.GL_TRIANGLE_STRIP, from * 2, (to - from) * 2);
 		}
 	}
 	
@@ -192,12 +257,13 @@ public class ChainLight extends Light {
 	 *            directional relative offset in degrees 
 	 */
 	public void attachToBody(Body body, float degrees) {
+		waitForUpdate();
 		this.body = body;
 		this.bodyPosition.set(body.getPosition());
 		bodyAngleOffset = MathUtils.degreesToRadians * degrees;
 		bodyAngle = body.getAngle();
 		applyAttachment();
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 	
 	@Override
@@ -217,16 +283,18 @@ public class ChainLight extends Light {
 	
 	@Override
 	public void setPosition(float x, float y) {
+		waitForUpdate();
 		tmpPosition.x = x;
 		tmpPosition.y = y;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 	
 	@Override
 	public void setPosition(Vector2 position) {
+		waitForUpdate();
 		tmpPosition.x = position.x;
 		tmpPosition.y = position.y;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 	
 	@Override
@@ -269,6 +337,7 @@ public class ChainLight extends Light {
 	 */
 	@Override
 	public void setDistance(float dist) {
+		waitForUpdate();
 		dist *= RayHandler.gammaCorrectionParameter;
 		this.distance = dist < 0.01f ? 0.01f : dist;
 		dirty = true;
@@ -283,163 +352,457 @@ public class ChainLight extends Light {
 	/**
 	 * Calculates ray positions and angles along chain. This should be called
 	 * any time the number or values of elements changes in {@link #chain}.
+	 * 
+	 * <p>Rays are distributed along the whole chain again, for small
+	 * changes of long chains {@link #setVertices(int, float...)},
+	 * {@link #insertVertices(int, float...)} and
+	 * {@link #removeVertices(int, int)} are cheaper.
 	 */
 	public void updateChain() {
-		Vector2 v1 = Pools.obtain(Vector2.class);
-		Vector2 v2 = Pools.obtain(Vector2.class);
-		Vector2 vSegmentStart = Pools.obtain(Vector2.class);
-		Vector2 vDirection = Pools.obtain(Vector2.class);
-		Vector2 vRayOffset = Pools.obtain(Vector2.class);
-		Spinor tmpAngle = Pools.obtain(Spinor.class);
-		// Spinors used to represent perpendicular angle of each segment
-		Spinor previousAngle = Pools.obtain(Spinor.class);
-		Spinor currentAngle = Pools.obtain(Spinor.class);
-		Spinor nextAngle = Pools.obtain(Spinor.class);
-		// Spinors used to represent start, end and interpolated ray
-		// angles for a given segment
-		Spinor startAngle = Pools.obtain(Spinor.class);
-		Spinor endAngle = Pools.obtain(Spinor.class);
-		Spinor rayAngle = Pools.obtain(Spinor.class);
-		
-		int segmentCount = chain.size / 2 - 1;
-		
+		waitForUpdate();
+		distributeChain();
+	}
+	
+	/**
+	 * Distributes rays along the whole chain, called by update of dirty
+	 * light
+	 */
+	private void distributeChain() {
 		segmentAngles.clear();
 		segmentLengths.clear();
-		float remainingLength = 0;
+		segmentRays.clear();
+		segmentSpacings.clear();
+		editedFrom = Integer.MAX_VALUE;
+		editedTo = -1;
 		
-		for (int i = 0, j = 0; i < chain.size - 2; i += 2, j++) {
-			v1.set(chain.items[i + 2], chain.items[i + 3])
-				.sub(chain.items[i], chain.items[i + 1]);
-			segmentLengths.add(v1.len());
-			segmentAngles.add(
-				v1.rotate90(rayDirection).angle() * MathUtils.degreesToRadians
-			);
-			remainingLength += segmentLengths.items[j];
+		final int segmentCount = chain.size / 2 - 1;
+		float remainingLength = 0;
+		for (int i = 0; i < segmentCount; i++) {
+			segmentLengths.add(0f);
+			segmentAngles.add(0f);
+			updateSegmentShape(i);
+			remainingLength += segmentLengths.items[i];
 		}
 		
-		int rayNumber = 0;
 		int remainingRays = rayNum;
-		
 		for (int i = 0; i < segmentCount; i++) {
-			// get this and adjacent segment angles
-			previousAngle.set(
-				(i == 0) ?
-				segmentAngles.items[i] : segmentAngles.items[i - 1]);
-			currentAngle.set(segmentAngles.items[i]);
-			nextAngle.set(
-				(i == segmentAngles.size - 1) ?
-				segmentAngles.items[i] : segmentAngles.items[i + 1]);
-			
-			// interpolate to find actual start and end angles
-			startAngle.set(previousAngle).slerp(currentAngle, 0.5f);
-			endAngle.set(currentAngle).slerp(nextAngle, 0.5f);
-
-			int segmentVertex = i * 2;
-			vSegmentStart.set(
-				chain.items[segmentVertex], chain.items[segmentVertex + 1]);
-			vDirection.set(
-				chain.items[segmentVertex + 2], chain.items[segmentVertex + 3]
-			).sub(vSegmentStart).nor();
-
-			float raySpacing = remainingLength / remainingRays;
-			int segmentRays = (i == segmentCount - 1) ?
+			final int rays = (i == segmentCount - 1) ?
 				remainingRays :
 				(int) ((segmentLengths.items[i] / remainingLength) *
 						remainingRays);
-			
-			for (int j = 0; j < segmentRays; j++) {
-				float position = j * raySpacing;
-
-				// interpolate ray angle based on position within segment
-				rayAngle.set(startAngle).slerp(
-					endAngle, position / segmentLengths.items[i]);
-				float angle = rayAngle.angle();
-				vRayOffset.set(this.rayStartOffset, 0).rotateRad(angle);
-				v1.set(vDirection).scl(position).add(vSegmentStart).add(vRayOffset);
-				
-				this.startX[rayNumber] = v1.x;
-				this.startY[rayNumber] = v1.y;
-				v2.set(distance, 0).rotateRad(angle).add(v1);
-				this.endX[rayNumber] = v2.x;
-				this.endY[rayNumber] = v2.y;
-				rayNumber++;
+			segmentSpacings.add(remainingLength / remainingRays);
+			segmentRays.add(rays);
+			remainingRays -= rays;
+			remainingLength -= segmentLengths.items[i];
+		}
+		
+		int rayNumber = 0;
+		for (int i = 0; i < segmentCount; i++) {
+			updateSegmentRays(i, rayNumber);
+			rayNumber += segmentRays.items[i];
+		}
+		applyAttachment(0, rayNum);
+	}
+	
+	/**
+	 * Replaces vertices of the chain starting with given vertex
+	 * 
+	 * <p>Only rays of segments adjacent to changed vertices and of their
+	 * neighbours are recalculated on next update, and static lights only
+	 * recast these rays. Segments keep their number of rays.
+	 * 
+	 * @param index
+	 *            index of the first replaced vertex
+	 * @param vertices
+	 *            (x, y) pairs of new vertex positions
+	 */
+	public void setVertices(int index, float... vertices) {
+		waitForUpdate();
+		final int count = vertices.length / 2;
+		if (index < 0 || index + count > chain.size / 2)
+			throw new IndexOutOfBoundsException("vertex index: " + index);
+		
+		System.arraycopy(vertices, 0, chain.items, index * 2, count * 2);
+		markEdited(index - 1, index + count - 1);
+	}
+	
+	/**
+	 * Inserts vertices to the chain before given vertex
+	 * 
+	 * <p>Rays of the split segment are distributed between new segments,
+	 * other segments keep their rays.
+	 * 
+	 * @param index
+	 *            index of vertex the new ones are inserted before, number
+	 *            of vertices to append them
+	 * @param vertices
+	 *            (x, y) pairs of inserted vertex positions
+	 */
+	public void insertVertices(int index, float... vertices) {
+		waitForUpdate();
+		final int vertexCount = chain.size / 2;
+		final int count = vertices.length / 2;
+		if (index < 0 || index > vertexCount)
+			throw new IndexOutOfBoundsException("vertex index: " + index);
+		if (count == 0) return;
+		
+		final float[] items = chain.ensureCapacity(count * 2);
+		System.arraycopy(items, index * 2, items, (index + count) * 2,
+				chain.size - index * 2);
+		System.arraycopy(vertices, 0, items, index * 2, count * 2);
+		chain.size += count * 2;
+		if (vertexCount < 2 || segmentRays.size != vertexCount - 1) {
+			dirty = true;
+			return;
+		}
+		
+		// the split segment becomes count + 1 segments
+		final int segment = index == 0 ? 0 :
+				(index == vertexCount ? vertexCount - 2 : index - 1);
+		for (int i = 0; i < count; i++) {
+			segmentLengths.insert(segment, 0f);
+			segmentAngles.insert(segment, 0f);
+			segmentSpacings.insert(segment, 0f);
+			segmentRays.insert(segment, 0);
+		}
+		shiftEdited(segment, count);
+		distributeRays(segment, count + 1, segmentRays.items[segment + count]);
+		markEdited(segment, segment + count);
+	}
+	
+	/**
+	 * Removes vertices from the chain
+	 * 
+	 * <p>Rays of removed segments are given to the segment replacing them,
+	 * other segments keep their rays.
+	 * 
+	 * @param index
+	 *            index of the first removed vertex
+	 * @param count
+	 *            number of removed vertices
+	 */
+	public void removeVertices(int index, int count) {
+		waitForUpdate();
+		final int vertexCount = chain.size / 2;
+		if (index < 0 || count < 0 || index + count > vertexCount)
+			throw new IndexOutOfBoundsException("vertex index: " + index);
+		if (count == 0) return;
+		
+		chain.removeRange(index * 2, (index + count) * 2 - 1);
+		if (vertexCount - count < 2 || segmentRays.size != vertexCount - 1) {
+			dirty = true;
+			return;
+		}
+		
+		// count + 1 segments around removed vertices merge to one
+		final int segment = index == 0 ? 0 :
+				(index + count == vertexCount ? index - 2 : index - 1);
+		int rays = 0;
+		for (int i = segment; i <= segment + count; i++) {
+			rays += segmentRays.items[i];
+		}
+		segmentLengths.removeRange(segment, segment + count - 1);
+		segmentAngles.removeRange(segment, segment + count - 1);
+		segmentSpacings.removeRange(segment, segment + count - 1);
+		segmentRays.removeRange(segment, segment + count - 1);
+		shiftEdited(segment, -count);
+		distributeRays(segment, 1, rays);
+		markEdited(segment, segment);
+	}
+	
+	/**
+	 * Recalculates rays of edited segments and their neighbours
+	 */
+	void updateEditedSegments() {
+		final int from = Math.max(0, editedFrom - 1);
+		final int to = Math.min(segmentRays.size - 1, editedTo + 1);
+		for (int i = Math.max(0, editedFrom); i <= editedTo; i++) {
+			final float length = segmentLengths.items[i];
+			updateSegmentShape(i);
+			// rays keep their relative position in resized segment
+			if (length > 0f) {
+				segmentSpacings.items[i] *= segmentLengths.items[i] / length;
 			}
-			
-			remainingRays -= segmentRays;
+		}
+		editedFrom = Integer.MAX_VALUE;
+		editedTo = -1;
+		
+		int rayNumber = 0;
+		for (int i = 0; i < from; i++) {
+			rayNumber += segmentRays.items[i];
+		}
+		final int firstRay = rayNumber;
+		for (int i = from; i <= to; i++) {
+			updateSegmentRays(i, rayNumber);
+			rayNumber += segmentRays.items[i];
+		}
+		applyAttachment(firstRay, rayNumber);
+		dirtyRayFrom = Math.min(dirtyRayFrom, firstRay);
+		dirtyRayTo = Math.max(dirtyRayTo, rayNumber);
+	}
+	
+	/**
+	 * Gives rays to segments in range by their lengths, in the same way
+	 * {@link #updateChain()} distributes them along whole chain
+	 */
+	private void distributeRays(int first, int count, int rays) {
+		float remainingLength = 0;
+		for (int i = first; i < first + count; i++) {
+			updateSegmentShape(i);
+			remainingLength += segmentLengths.items[i];
+		}
+		
+		int remainingRays = rays;
+		for (int i = first; i < first + count; i++) {
+			final int raysOfSegment = (i == first + count - 1) ?
+				remainingRays :
+				(int) ((segmentLengths.items[i] / remainingLength) *
+						remainingRays);
+			segmentSpacings.items[i] = remainingRays > 0 ?
+					remainingLength / remainingRays : 0f;
+			segmentRays.items[i] = raysOfSegment;
+			remainingRays -= raysOfSegment;
 			remainingLength -= segmentLengths.items[i];
-			
 		}
+	}
+	
+	private void markEdited(int fromSegment, int toSegment) {
+		editedFrom = Math.min(editedFrom, Math.max(0, fromSegment));
+		editedTo = Math.max(editedTo,
+				Math.min(segmentRays.size - 1, toSegment));
+	}
+	
+	/** Keeps pending edited range valid when segments are added or removed **/
+	private void shiftEdited(int segment, int count) {
+		if (editedTo < segment) return;
+		editedTo = Math.max(segment, editedTo + count);
+		if (editedFrom > segment) {
+			editedFrom = Math.max(segment, editedFrom + count);
+		}
+	}
+	
+	/**
+	 * Calculates length and perpendicular angle of given segment
+	 */
+	private void updateSegmentShape(int i) {
+		final float[] items = chain.items;
+		final int k = i * 2;
+		v1.set(items[k + 2], items[k + 3]).sub(items[k], items[k + 1]);
+		segmentLengths.items[i] = v1.len();
+		segmentAngles.items[i] =
+			v1.rotate90(rayDirection).angle() * MathUtils.degreesToRadians;
+	}
+	
+	/**
+	 * Calculates body local rays of given segment, their angles are
+	 * interpolated between angles of adjacent segments
+	 */
+	private void updateSegmentRays(int i, int rayNumber) {
+		final int segmentCount = segmentAngles.size;
+		// get this and adjacent segment angles
+		previousAngle.set(
+			(i == 0) ?
+			segmentAngles.items[i] : segmentAngles.items[i - 1]);
+		currentAngle.set(segmentAngles.items[i]);
+		nextAngle.set(
+			(i == segmentCount - 1) ?
+			segmentAngles.items[i] : segmentAngles.items[i + 1]);
 		
-		Pools.free(v1);
-		Pools.free(v2);
-		Pools.free(vSegmentStart);
-		Pools.free(vDirection);
-		Pools.free(vRayOffset);
-		Pools.free(previousAngle);
-		Pools.free(currentAngle);
-		Pools.free(nextAngle);
-		Pools.free(startAngle);
-		Pools.free(endAngle);
-		Pools.free(rayAngle);
-		Pools.free(tmpAngle);
+		// interpolate to find actual start and end angles
+		startAngle.set(previousAngle).slerp(currentAngle, 0.5f);
+		endAngle.set(currentAngle).slerp(nextAngle, 0.5f);
+
+		int segmentVertex = i * 2;
+		vSegmentStart.set(
+			chain.items[segmentVertex], chain.items[segmentVertex + 1]);
+		vDirection.set(
+			chain.items[segmentVertex + 2], chain.items[segmentVertex + 3]
+		).sub(vSegmentStart).nor();
+
+		final float raySpacing = segmentSpacings.items[i];
+		final int rays = segmentRays.items[i];
+		for (int j = 0; j < rays; j++) {
+			float position = j * raySpacing;
+
+			// interpolate ray angle based on position within segment
+			rayAngle.set(startAngle).slerp(
+				endAngle, position / segmentLengths.items[i]);
+			float angle = rayAngle.angle();
+			vRayOffset.set(this.rayStartOffset, 0).rotateRad(angle);
+			v1.set(vDirection).scl(position).add(vSegmentStart).add(vRayOffset);
+			
+			this.localStartX[rayNumber] = v1.x;
+			this.localStartY[rayNumber] = v1.y;
+			v2.set(distance, 0).rotateRad(angle).add(v1);
+			this.localEndX[rayNumber] = v2.x;
+			this.localEndY[rayNumber] = v2.y;
+			rayNumber++;
+		}
 	}
 	
 	/**
-	 * Applies attached body initial transform to all lights rays
+	 * Transforms body local rays to world with attached body transform,
+	 * rays are just copied if light isn't attached
 	 */
 	void applyAttachment() {
-		if (body == null || staticLight) return;
+		applyAttachment(0, rayNum);
+	}
+	
+	/**
+	 * Transforms body local rays from (inclusive) to (exclusive) to world
+	 */
+	void applyAttachment(int from, int to) {
+		segmentBoundsValid = false;
+		if (body == null || staticLight) {
+			System.arraycopy(localStartX, from, startX, from, to - from);
+			System.arraycopy(localStartY, from, startY, from, to - from);
+			System.arraycopy(localEndX, from, endX, from, to - from);
+			System.arraycopy(localEndY, from, endY, from, to - from);
+			return;
+		}
 		
-		restorePosition.setToTranslation(bodyPosition);
-		rotateAroundZero.setToRotationRad(bodyAngle + bodyAngleOffset);
-		for (int i = 0; i < rayNum; i++) {
-			tmpVec.set(startX[i], startY[i]).mul(rotateAroundZero).mul(restorePosition);
-			startX[i] = tmpVec.x;
-			startY[i] = tmpVec.y;
-			tmpVec.set(endX[i], endY[i]).mul(rotateAroundZero).mul(restorePosition);
-			endX[i] = tmpVec.x;
-			endY[i] = tmpVec.y;
+		final float angle = bodyAngle + bodyAngleOffset;
+		final float cos = (float)Math.cos(angle);
+		final float sin = (float)Math.sin(angle);
+		final float x = bodyPosition.x;
+		final float y = bodyPosition.y;
+		for (int i = from; i < to; i++) {
+			startX[i] = x + localStartX[i] * cos - localStartY[i] * sin;
+			startY[i] = y + localStartX[i] * sin + localStartY[i] * cos;
+			endX[i] = x + localEndX[i] * cos - localEndY[i] * sin;
+			endY[i] = y + localEndX[i] * sin + localEndY[i] * cos;
 		}
 	}
 	
+	/**
+	 * Finds ray ranges of segments overlapping the screen, the light is
+	 * culled if there are none
+	 * 
+	 * <p>Each range is extended by one ray on both sides, so strips
+	 * connecting it to neighbouring segments are drawn too.
+	 */
 	protected boolean cull() {
+		visibleRays.clear();
 		if (!rayHandler.culling) {
 			culled = false;
-		} else {
-			updateBoundingRects();
+			return culled;
+		}
+		
+		updateBoundingRects();
+		if (sumRays() != rayNum) {
+			// chain not laid out yet, whole light is one range
 			culled = chainLightBounds.width > 0 &&
 					 chainLightBounds.height > 0 &&
 					 !chainLightBounds.overlaps(rayHandlerBounds);
+			if (!culled) visibleRays.addAll(0, rayNum);
+			return culled;
 		}
+		
+		if (!segmentBoundsValid) updateSegmentBounds();
+		final float pad = soft && !xray ? softShadowLength : 0f;
+		final float x1 = rayHandler.x1 - pad;
+		final float y1 = rayHandler.y1 - pad;
+		final float x2 = rayHandler.x2 + pad;
+		final float y2 = rayHandler.y2 + pad;
+		final float[] bounds = segmentBounds.items;
+		int rayNumber = 0;
+		for (int i = 0; i < segmentRays.size; i++) {
+			final int rays = segmentRays.items[i];
+			final int k = i * 4;
+			if (rays > 0 && bounds[k] <= x2 && bounds[k + 1] <= y2 &&
+				bounds[k + 2] >= x1 && bounds[k + 3] >= y1) {
+				addVisibleRays(Math.max(0, rayNumber - 1),
+						Math.min(rayNum, rayNumber + rays + 1));
+			}
+			rayNumber += rays;
+		}
+		culled = visibleRays.size == 0;
 		return culled;
 	}
 	
+	/** Adds range to visible rays, merging it with previous one if they touch **/
+	private void addVisibleRays(int from, int to) {
+		final int size = visibleRays.size;
+		if (size > 0 && visibleRays.items[size - 1] >= from) {
+			visibleRays.items[size - 1] = to;
+		} else {
+			visibleRays.add(from);
+			visibleRays.add(to);
+		}
+	}
+	
+	/** @return number of rays distributed to segments **/
+	private int sumRays() {
+		int rays = 0;
+		for (int i = 0; i < segmentRays.size; i++) {
+			rays += segmentRays.items[i];
+		}
+		return rays;
+	}
+	
+	/**
+	 * Calculates bounds of whole rays of each segment, hit points always
+	 * lie within them
+	 */
+	void updateSegmentBounds() {
+		segmentBounds.clear();
+		final float[] bounds = segmentBounds.ensureCapacity(
+				segmentRays.size * 4);
+		int rayNumber = 0;
+		for (int i = 0; i < segmentRays.size; i++) {
+			float minX = Float.POSITIVE_INFINITY;
+			float minY = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY;
+			float maxY = Float.NEGATIVE_INFINITY;
+			final int to = rayNumber + segmentRays.items[i];
+			for (int j = rayNumber; j < to; j++) {
+				minX = Math.min(minX, Math.min(startX[j], endX[j]));
+				minY = Math.min(minY, Math.min(startY[j], endY[j]));
+				maxX = Math.max(maxX, Math.max(startX[j], endX[j]));
+				maxY = Math.max(maxY, Math.max(startY[j], endY[j]));
+			}
+			final int k = i * 4;
+			bounds[k] = minX;
+			bounds[k + 1] = minY;
+			bounds[k + 2] = maxX;
+			bounds[k + 3] = maxY;
+			rayNumber = to;
+		}
+		segmentBounds.size = segmentRays.size * 4;
+		segmentBoundsValid = true;
+	}
+	
+	/**
+	 * Follows attached body, rays are transformed only if it moved
+	 */
+	@Override
 	void updateBody() {
-		if (body == null || staticLight) return;
+		if (body == null || staticLight || rayHandler.bodiesCaptured) return;
 	
 		final Vector2 vec = body.getPosition();
-		tmpVec.set(0, 0).sub(bodyPosition);
-		bodyPosition.set(vec);
-		zeroPosition.setToTranslation(tmpVec);
-		restorePosition.setToTranslation(bodyPosition);
-		rotateAroundZero.setToRotationRad(bodyAngle).inv().rotateRad(body.getAngle());
-		bodyAngle = body.getAngle();
+		final float angle = body.getAngle();
+		if (vec.x == bodyPosition.x && vec.y == bodyPosition.y &&
+			angle == bodyAngle)
+			return;
 		
-		for (int i = 0; i < rayNum; i++) {
-			tmpVec.set(startX[i], startY[i]).mul(zeroPosition).mul(rotateAroundZero)
-				.mul(restorePosition);
-			startX[i] = tmpVec.x;
-			startY[i] = tmpVec.y;
-
-			tmpVec.set(endX[i], endY[i]).mul(zeroPosition).mul(rotateAroundZero)
-				.mul(restorePosition);
-			endX[i] = tmpVec.x;
-			endY[i] = tmpVec.y;
-		}
+		bodyPosition.set(vec);
+		bodyAngle = angle;
+		applyAttachment();
+		if (motionAware) dirty = true;
 	}
 	
 	protected void updateMesh() {
-		for (int i = 0; i < rayNum; i++) {
+		updateMesh(0, rayNum);
+	}
+	
+	/**
+	 * Casts rays from (inclusive) to (exclusive) and uploads their part of
+	 * the meshes
+	 */
+	protected void updateMesh(int from, int to) {
+		dirtyRayFrom = Integer.MAX_VALUE;
+		dirtyRayTo = -1;
+		for (int i = from; i < to; i++) {
 			m_index = i;
 			f[i] = 1f;
 			tmpEnd.x = endX[i];
@@ -449,15 +812,36 @@ public class ChainLight extends Light {
 			tmpStart.x = startX[i];
 			tmpStart.y = startY[i];
 			if (rayHandler.world != null && !xray) {
-				rayHandler.world.rayCast(ray, tmpStart, tmpEnd);
+				castRay(tmpStart, tmpEnd);
 			}
 		}
-		setMesh();
+		setMesh(from, to);
 	}
 	
 	protected void setMesh() {
-		int size = 0;
-		for (int i = 0; i < rayNum; i++) {
+		setMesh(0, rayNum);
+	}
+	
+	/**
+	 * Uploads vertices of rays from (inclusive) to (exclusive), meshes are
+	 * replaced whole if they don't have all vertices yet
+	 */
+	protected void setMesh(int from, int to) {
+		if (rayHandler.deferMeshUpload) {
+			meshPending = true;
+			return;
+		}
+		if (lightMesh.getNumVertices() != vertexNum ||
+			soft && !xray && softShadowMesh.getNumVertices() != vertexNum ||
+			rayHandler.interpolation && (lightHistory == null ||
+				soft && !xray && softShadowHistory == null)) {
+			from = 0;
+			to = rayNum;
+		}
+		
+		final int offset = from * 8;
+		int size = offset;
+		for (int i = from; i < to; i++) {
 			segments[size++] = startX[i];
 			segments[size++] = startY[i];
 			segments[size++] = colorF;
@@ -467,11 +851,11 @@ public class ChainLight extends Light {
 			segments[size++] = colorF;
 			segments[size++] = 1 - f[i];
 		}
-		lightMesh.setVertices(segments, 0, size);
+		upload(lightMesh, offset, size);
 		if (!soft || xray) return;
 
-		size = 0;
-		for (int i = 0; i < rayNum; i++) {
+		size = offset;
+		for (int i = from; i < to; i++) {
 			segments[size++] = mx[i];
 			segments[size++] = my[i];
 			segments[size++] = colorF;
@@ -484,7 +868,63 @@ public class ChainLight extends Light {
 			segments[size++] = zeroColorBits;
 			segments[size++] = 0f;
 		}
-		softShadowMesh.setVertices(segments, 0, size);
+		upload(softShadowMesh, offset, size);
+	}
+	
+	private void upload(Mesh mesh, int offset, int size) {
+		if (offset == 0 && size == rayNum * 8) {
+			mesh.setVertices(segments, 0, size);
+			storeVertices(mesh, segments, 0, size, true);
+		} else {
+			mesh.updateVertices(offset, segments, offset, size - offset);
+			storeVertices(mesh, segments, offset, size - offset, false);
+		}
+	}
+	
+	@Override
+	void getReach(Rectangle bounds) {
+		float minX = Float.POSITIVE_INFINITY;
+		float minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY;
+		float maxY = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < rayNum; i++) {
+			minX = Math.min(minX, Math.min(startX[i], endX[i]));
+			minY = Math.min(minY, Math.min(startY[i], endY[i]));
+			maxX = Math.max(maxX, Math.max(startX[i], endX[i]));
+			maxY = Math.max(maxY, Math.max(startY[i], endY[i]));
+		}
+		if (minX > maxX) {
+			bounds.set(0f, 0f, 0f, 0f);
+			return;
+		}
+		final float pad = soft && !xray ? softShadowLength : 0f;
+		bounds.set(minX - pad, minY - pad,
+				maxX - minX + pad * 2f, maxY - minY + pad * 2f);
+	}
+	
+	@Override
+	boolean affectedByMotion(OccluderIndex index) {
+		if (index.changedAll) return true;
+		if (index.changedBounds.size == 0) return false;
+		
+		float minX = Float.POSITIVE_INFINITY;
+		float minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY;
+		float maxY = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < rayNum; i++) {
+			minX = Math.min(minX, Math.min(startX[i], endX[i]));
+			minY = Math.min(minY, Math.min(startY[i], endY[i]));
+			maxX = Math.max(maxX, Math.max(startX[i], endX[i]));
+			maxY = Math.max(maxY, Math.max(startY[i], endY[i]));
+		}
+		
+		final float[] bounds = index.changedBounds.items;
+		for (int i = 0, n = index.changedBounds.size; i < n; i += 4) {
+			if (bounds[i] <= maxX && bounds[i + 1] <= maxY &&
+				bounds[i + 2] >= minX && bounds[i + 3] >= minY)
+				return true;
+		}
+		return false;
 	}
 	
 	/** Internal method for bounding rectangle recalculation **/
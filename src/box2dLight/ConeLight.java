@@ -2,6 +2,7 @@ package box2dLight;
 
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.physics.box2d.Filter;
 
 /**
  * Light shaped as a circle's sector with given radius, direction and angle
@@ -13,6 +14,20 @@ import com.badlogic.gdx.math.MathUtils;
 public class ConeLight extends PositionalLight {
 
 	float coneDegree;
+	
+	/** Angle snapping variables **/
+	protected boolean angleSnap = false;
+	boolean snappedRaysValid = false;
+	int snappedRay;
+	float snapStep;
+	int cachedSnappedRay;
+	float cachedSnapStep;
+	float cachedX;
+	float cachedY;
+	float cachedDistance;
+	int cachedRayNum;
+	int snapFilterVersion;
+	int snapIndexUpdate;
 
 	/**
 	 * Creates light shaped as a circle's sector with given radius, direction and arc angle
@@ -49,7 +64,7 @@ public class ConeLight extends PositionalLight {
 		if (dirty) setEndPoints();
 		
 		if (cull()) return;
-		if (staticLight && !dirty) return;
+		if ((staticLight || motionAware) && !dirty) return;
 		
 		dirty = false;
 		updateMesh();
@@ -60,6 +75,7 @@ public class ConeLight extends PositionalLight {
 	 * <p>Actual recalculations will be done only on {@link #update()} call
 	 */
 	public void setDirection(float direction) {
+		waitForUpdate();
 		this.direction = direction;
 		dirty = true;
 	}
@@ -79,6 +95,7 @@ public class ConeLight extends PositionalLight {
 	 * 
 	 */
 	public void setConeDegree(float coneDegree) {
+		waitForUpdate();
 		this.coneDegree = MathUtils.clamp(coneDegree, 0f, 180f);
 		dirty = true;
 	}
@@ -90,21 +107,230 @@ public class ConeLight extends PositionalLight {
 	 * <p>Actual recalculations will be done only on {@link #update()} call
 	 */
 	public void setDistance(float dist) {
+		waitForUpdate();
 		dist *= RayHandler.gammaCorrectionParameter;
 		this.distance = dist < 0.01f ? 0.01f : dist;
 		dirty = true;
 	}
 	
+	@Override
+	protected float getArcStart() {
+		return direction - coneDegree;
+	}
+	
+	@Override
+	protected float getArcAngle() {
+		return 2f * coneDegree;
+	}
+	
+	@Override
+	boolean needsOccluderIndex() {
+		return angleSnap || super.needsOccluderIndex();
+	}
+	
+	@Override
+	public void setFilter(Filter filter) {
+		super.setFilter(filter);
+		snappedRaysValid = false;
+	}
+	
+	@Override
+	void restoreDirections() {
+		sharedDirections = false;
+		setEndPoints();
+	}
+	
 	/** Updates lights sector basing on distance, direction and coneDegree **/
 	protected void setEndPoints() {
+		if (angleSnap && coneDegree > 0f && rayNum > 1) {
+			// grid step closest to ray spacing that divides full circle
+			final int steps = Math.max(rayNum - 1,
+					MathUtils.round(180f * (rayNum - 1) / coneDegree));
+			snapStep = 360f / steps;
+			snappedRay = MathUtils.round((direction + coneDegree) / snapStep);
+			// direction depends only on grid index, so shifted rays match
+			ownDirections();
+			rayArcStart = snappedRay * snapStep;
+			rayArcAngle = -(rayNum - 1) * snapStep;
+			for (int i = 0; i < rayNum; i++) {
+				final float angle = (snappedRay - i) * snapStep;
+				sin[i] = MathUtils.sinDeg(angle);
+				cos[i] = MathUtils.cosDeg(angle);
+				endX[i] = distance * cos[i];
+				endY[i] = distance * sin[i];
+			}
+		} else {
+			snappedRaysValid = false;
+			setEndPoints(direction + coneDegree, -2f * coneDegree);
+		}
+	}
+	
+	@Override
+	protected void updateMesh() {
+		if (angleSnap && snapStep > 0f && coneDegree > 0f && group == null &&
+			rayHandler.world != null && !xray && !rayHandler.pseudo3d &&
+			!batched && !adaptive && !visibilityPolygon) {
+			vertexNum = rayNum + 1;
+			updateSnappedRays();
+			setMesh();
+			return;
+		}
+		snappedRaysValid = false;
+		super.updateMesh();
+	}
+	
+	/**
+	 * Casts only rays whose hits can't be taken from previous update
+	 * 
+	 * <p>Ray directions are snapped to a global angular grid, so rotating
+	 * the light shifts hits between rays and only rays entering the arc are
+	 * cast. Shrinking distance clamps kept hits, growing it recasts only
+	 * rays that didn't hit anything. Rays towards areas changed in the
+	 * occluder index are recast, moving the light recasts all of them.
+	 */
+	protected void updateSnappedRays() {
+		final OccluderIndex index = rayHandler.occluderIndex;
+		final int shift = snappedRay - cachedSnappedRay;
+		if (!snappedRaysValid || index == null || index.changedAll ||
+			index.updateCount > snapIndexUpdate + 1 ||
+			start.x != cachedX || start.y != cachedY ||
+			snapStep != cachedSnapStep || rayNum != cachedRayNum ||
+			snapFilterVersion != filterVersion ||
+			Math.abs(shift) >= rayNum) {
+			for (int i = 0; i < rayNum; i++) {
+				f[i] = Float.NaN;
+			}
+		} else {
+			// ray i points where ray i - shift pointed, NaN marks rays to cast
+			if (shift > 0) {
+				System.arraycopy(f, 0, f, shift, rayNum - shift);
+				for (int i = 0; i < shift; i++) {
+					f[i] = Float.NaN;
+				}
+			} else if (shift < 0) {
+				System.arraycopy(f, -shift, f, 0, rayNum + shift);
+				for (int i = rayNum + shift; i < rayNum; i++) {
+					f[i] = Float.NaN;
+				}
+			}
+			if (distance != cachedDistance) {
+				final float scale = cachedDistance / distance;
+				for (int i = 0; i < rayNum; i++) {
+					if (f[i] < 1f) {
+						f[i] = Math.min(1f, f[i] * scale);
+					} else if (scale < 1f) {
+						f[i] = Float.NaN;
+					}
+				}
+			}
+			final float[] bounds = index.changedBounds.items;
+			for (int k = 0, n = index.changedBounds.size; k < n; k += 4) {
+				invalidateSnappedRays(bounds[k], bounds[k + 1],
+						bounds[k + 2], bounds[k + 3]);
+			}
+		}
+		cachedSnappedRay = snappedRay;
+		cachedSnapStep = snapStep;
+		cachedX = start.x;
+		cachedY = start.y;
+		cachedDistance = distance;
+		cachedRayNum = rayNum;
+		snapFilterVersion = filterVersion;
+		snappedRaysValid = index != null;
+		if (index != null) snapIndexUpdate = index.updateCount;
+		
 		for (int i = 0; i < rayNum; i++) {
-			float angle = direction + coneDegree - 2f * coneDegree * i
-					/ (rayNum - 1f);
-			final float s = sin[i] = MathUtils.sinDeg(angle);
-			final float c = cos[i] = MathUtils.cosDeg(angle);
-			endX[i] = distance * c;
-			endY[i] = distance * s;
+			if (f[i] != f[i]) {
+				m_index = i;
+				f[i] = 1f;
+				tmpEnd.x = endX[i] + start.x;
+				mx[i] = tmpEnd.x;
+				tmpEnd.y = endY[i] + start.y;
+				my[i] = tmpEnd.y;
+				castRay(start, tmpEnd);
+			} else {
+				mx[i] = start.x + endX[i] * f[i];
+				my[i] = start.y + endY[i] * f[i];
+			}
 		}
 	}
+	
+	/**
+	 * Marks snapped rays that can cross given rectangle to be recast
+	 */
+	private void invalidateSnappedRays(float x1, float y1, float x2, float y2) {
+		if (x1 > start.x + distance || y1 > start.y + distance ||
+			x2 < start.x - distance || y2 < start.y - distance)
+			return;
+		
+		if (x1 <= start.x && start.x <= x2 && y1 <= start.y && start.y <= y2) {
+			for (int i = 0; i < rayNum; i++) {
+				f[i] = Float.NaN;
+			}
+			return;
+		}
+		
+		// angular extent of the rectangle around its center direction
+		final float center = (float)Math.atan2(
+				(y1 + y2) * 0.5f - start.y, (x1 + x2) * 0.5f - start.x) *
+				MathUtils.radiansToDegrees;
+		float min = 0f;
+		float max = 0f;
+		for (int corner = 0; corner < 4; corner++) {
+			final float x = (corner & 1) == 0 ? x1 : x2;
+			final float y = (corner & 2) == 0 ? y1 : y2;
+			float delta = (float)Math.atan2(y - start.y, x - start.x) *
+					MathUtils.radiansToDegrees - center;
+			if (delta > 180f) delta -= 360f;
+			if (delta < -180f) delta += 360f;
+			min = Math.min(min, delta);
+			max = Math.max(max, delta);
+		}
+		
+		// rays go clockwise from snappedRay, rectangle may be a turn away
+		final float arcCenter = (snappedRay - (rayNum - 1) * 0.5f) * snapStep;
+		final int turns = MathUtils.round((arcCenter - center) / 360f);
+		for (int turn = turns - 1; turn <= turns + 1; turn++) {
+			final float angle = center + turn * 360f;
+			final int from = Math.max(0,
+					MathUtils.floor(snappedRay - (angle + max) / snapStep) - 1);
+			final int to = Math.min(rayNum - 1,
+					MathUtils.ceil(snappedRay - (angle + min) / snapStep) + 1);
+			for (int i = from; i <= to; i++) {
+				f[i] = Float.NaN;
+			}
+		}
+	}
+	
+	/**
+	 * @return if ray directions of this light are snapped to angular grid
+	 */
+	public boolean isAngleSnap() {
+		return angleSnap;
+	}
+	
+	/**
+	 * Enables/disables snapping of ray directions to global angular grid
+	 * 
+	 * <p>If enabled ray hits are kept between updates, so rotating the
+	 * light only casts the rays entering its arc and shrinking distance
+	 * casts none, as long as the light doesn't move. Rays towards bodies
+	 * that moved or geometry that changed are recast. Direction of the
+	 * light is rounded to the angle between rays.
+	 * 
+	 * <p>Changes are detected by occluder index, which is enabled for the
+	 * rayHandler of this light too.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see RayHandler#setOccluderIndex(boolean)
+	 */
+	public void setAngleSnap(boolean flag) {
+		waitForUpdate();
+		angleSnap = flag;
+		snappedRaysValid = false;
+		if (flag && rayHandler != null) rayHandler.setOccluderIndex(true);
+		dirty = true;
+	}
 
 }
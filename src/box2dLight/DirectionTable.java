@@ -0,0 +1,115 @@
+package box2dLight;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.NumberUtils;
+import com.badlogic.gdx.utils.ObjectMap;
+
+/**
+ * Unit ray directions shared by all lights with the same number of rays
+ * evenly spaced over the same arc
+ *
+ * <p>Tables are reference counted and must not be modified, lights that
+ * change their ray directions use own arrays instead.
+ */
+final class DirectionTable {
+
+	private static final ObjectMap<DirectionTable, DirectionTable> tables =
+			new ObjectMap<DirectionTable, DirectionTable>();
+	private static final DirectionTable key = new DirectionTable();
+
+	int rays;
+	float arcStart;
+	float arcAngle;
+	final float[] sin;
+	final float[] cos;
+	private int references;
+
+	private DirectionTable() {
+		sin = null;
+		cos = null;
+	}
+
+	private DirectionTable(int rays, float arcStart, float arcAngle) {
+		sin = new float[rays];
+		cos = new float[rays];
+		set(rays, arcStart, arcAngle);
+	}
+
+	/**
+	 * @return if table holds given directions
+	 */
+	boolean matches(int rays, float arcStart, float arcAngle) {
+		return this.rays == rays && this.arcStart == arcStart &&
+				this.arcAngle == arcAngle;
+	}
+
+	/**
+	 * Returns table with given number of directions spaced evenly from
+	 * arcStart to arcStart + arcAngle in degrees, both included
+	 *
+	 * <p>Previous table of the light is released, if it isn't used by any
+	 * other light it is recalculated in place instead of allocating new one
+	 *
+	 * @param previous
+	 *            table the light used so far, may be {@code null}
+	 */
+	static synchronized DirectionTable acquire(DirectionTable previous,
+			int rays, float arcStart, float arcAngle) {
+		key.rays = rays;
+		key.arcStart = arcStart;
+		key.arcAngle = arcAngle;
+		DirectionTable table = tables.get(key);
+		if (table == previous && table != null) return table;
+
+		if (table == null) {
+			if (previous != null && previous.references == 1 &&
+				previous.sin.length == rays) {
+				tables.remove(previous);
+				previous.references = 0;
+				previous.set(rays, arcStart, arcAngle);
+				table = previous;
+			} else {
+				table = new DirectionTable(rays, arcStart, arcAngle);
+			}
+			tables.put(table, table);
+		}
+		if (previous != null && previous != table) release(previous);
+		table.references++;
+		return table;
+	}
+
+	/**
+	 * Releases table acquired by a light, unused tables are dropped
+	 */
+	static synchronized void release(DirectionTable table) {
+		if (--table.references == 0) tables.remove(table);
+	}
+
+	private void set(int rays, float arcStart, float arcAngle) {
+		this.rays = rays;
+		this.arcStart = arcStart;
+		this.arcAngle = arcAngle;
+		for (int i = 0; i < rays; i++) {
+			final float angle = arcStart + arcAngle * i / (rays - 1f);
+			sin[i] = MathUtils.sinDeg(angle);
+			cos[i] = MathUtils.cosDeg(angle);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof DirectionTable)) return false;
+		final DirectionTable other = (DirectionTable)o;
+		return matches(other.rays, other.arcStart, other.arcAngle);
+	}
+
+	@Override
+	public int hashCode() {
+		// adding zero turns -0f to 0f, which are equal
+		int hash = rays;
+		hash = 31 * hash + NumberUtils.floatToIntBits(arcStart + 0f);
+		hash = 31 * hash + NumberUtils.floatToIntBits(arcAngle + 0f);
+		return hash;
+	}
+
+}
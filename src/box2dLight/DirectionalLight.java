@@ -9,13 +9,16 @@ import com.badlogic.gdx.graphics.VertexAttribute;
 import com.badlogic.gdx.graphics.VertexAttributes.Usage;
 import com.badlogic.gdx.math.Intersector;
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.ChainShape;
 import com.badlogic.gdx.physics.box2d.CircleShape;
 import com.badlogic.gdx.physics.box2d.EdgeShape;
+import com.badlogic.gdx.physics.box2d.Filter;
 import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.QueryCallback;
 import com.badlogic.gdx.physics.box2d.Shape;
 import com.badlogic.gdx.physics.box2d.Shape.Type;
 
@@ -37,6 +40,22 @@ public class DirectionalLight extends Light {
 	protected final Vector2 lstart = new Vector2();
 	protected float xDisp;
 	protected float yDisp;
+	
+	/** Sweep mode variables **/
+	protected boolean sweep = false;
+	protected final Occluders stripOccluders = new Occluders();
+	
+	/** Column cache variables **/
+	protected boolean columnCache = false;
+	boolean columnsValid = false;
+	int firstColumn;
+	float columnSpacing;
+	float columnStartT;
+	int columnFilterVersion;
+	int columnIndexUpdate;
+	
+	/** Camera bounds rays were last placed over **/
+	float cameraX1, cameraY1, cameraX2, cameraY2;
 
 	/**
 	 * Creates directional light which source is at infinite distance,
@@ -83,10 +102,38 @@ public class DirectionalLight extends Light {
 
 	@Override
 	public void setDirection (float direction) {
+		waitForUpdate();
 		this.direction = direction;
 		sin = MathUtils.sinDeg(direction);
 		cos = MathUtils.cosDeg(direction);
-		if (staticLight) dirty = true;
+		columnsValid = false;
+		if (staticLight || motionAware) dirty = true;
+	}
+	
+	@Override
+	public void setFilter(Filter filter) {
+		super.setFilter(filter);
+		columnsValid = false;
+	}
+	
+	@Override
+	boolean needsOccluderIndex() {
+		return columnCache || super.needsOccluderIndex();
+	}
+	
+	@Override
+	boolean affectedByMotion(OccluderIndex index) {
+		// rays cover the camera, so they follow it even in a still scene
+		return cameraX1 != rayHandler.x1 || cameraY1 != rayHandler.y1 ||
+				cameraX2 != rayHandler.x2 || cameraY2 != rayHandler.y2 ||
+				super.affectedByMotion(index);
+	}
+	
+	@Override
+	void getReach(Rectangle bounds) {
+		// rays cover the whole camera
+		bounds.set(rayHandler.x1, rayHandler.y1,
+				rayHandler.x2 - rayHandler.x1, rayHandler.y2 - rayHandler.y1);
 	}
 	
 	@Override
@@ -102,12 +149,25 @@ public class DirectionalLight extends Light {
 			updateDynamicShadowMeshes();
 		}
 		
-		if (staticLight && !dirty) return;
+		if ((staticLight || motionAware) && !dirty) return;
 		dirty = false;
+		cameraX1 = rayHandler.x1;
+		cameraY1 = rayHandler.y1;
+		cameraX2 = rayHandler.x2;
+		cameraY2 = rayHandler.y2;
 
 		final float width = (rayHandler.x2 - rayHandler.x1);
 		final float height = (rayHandler.y2 - rayHandler.y1);
 		final float sizeOfScreen = width > height ? width : height;
+		final boolean cast = rayHandler.world != null && !xray &&
+				!rayHandler.pseudo3d;
+		
+		if (cast && columnCache && sizeOfScreen > 0f) {
+			updateColumns(sizeOfScreen);
+			setMesh();
+			return;
+		}
+		columnsValid = false;
 
 		float xAxelOffSet = sizeOfScreen * cos;
 		float yAxelOffSet = sizeOfScreen * sin;
@@ -132,17 +192,189 @@ public class DirectionalLight extends Light {
 			final float steppedX = i * portionX + x;
 			final float steppedY = i * portionY + y;
 			m_index = i;
+			f[i] = 1f;
 			start[i].x = steppedX - xAxelOffSet;
 			start[i].y = steppedY - yAxelOffSet;
 
 			mx[i] = end[i].x = steppedX + xAxelOffSet;
 			my[i] = end[i].y = steppedY + yAxelOffSet;
 
-			if (rayHandler.world != null && !xray && !rayHandler.pseudo3d) {
-				rayHandler.world.rayCast(ray, start[i], end[i]);
+			if (cast && !sweep) {
+				castRay(start[i], end[i]);
+			}
+		}
+		if (cast && sweep) sweepRays();
+		setMesh();
+	}
+	
+	/**
+	 * Places rays on world anchored columns and casts only those not cached
+	 * from previous update
+	 * 
+	 * <p>Columns are lines along light direction spaced evenly on the
+	 * perpendicular axis. Ray starts are snapped along the direction to
+	 * multiples of screen size and rays are made one screen size longer to
+	 * still cover it, so panning the camera only shifts rays between
+	 * columns. Rays of newly exposed columns and of columns crossing areas
+	 * changed in the occluder index are recast, zooming, rotating the light
+	 * or panning along its direction over the snapping step recasts all.
+	 */
+	protected void updateColumns(float sizeOfScreen) {
+		final float spacing = 2f * sizeOfScreen / (rayNum - 1);
+		final float length = 3f * sizeOfScreen;
+		final float centerX = (rayHandler.x1 + rayHandler.x2) * 0.5f;
+		final float centerY = (rayHandler.y1 + rayHandler.y2) * 0.5f;
+		final float u = centerX * -sin + centerY * cos;
+		final float t = centerX * cos + centerY * sin;
+		final int column = MathUtils.floor((u - sizeOfScreen) / spacing);
+		final float startT = MathUtils.floor(
+				(t - sizeOfScreen) / sizeOfScreen) * sizeOfScreen;
+		
+		final OccluderIndex index = rayHandler.occluderIndex;
+		final int shift = column - firstColumn;
+		if (!columnsValid || index == null || index.changedAll ||
+			index.updateCount > columnIndexUpdate + 1 ||
+			spacing != columnSpacing || startT != columnStartT ||
+			columnFilterVersion != filterVersion ||
+			Math.abs(shift) >= rayNum) {
+			for (int i = 0; i < rayNum; i++) {
+				f[i] = Float.NaN;
+			}
+		} else {
+			// NaN marks rays to recast
+			if (shift > 0) {
+				System.arraycopy(f, shift, f, 0, rayNum - shift);
+				for (int i = rayNum - shift; i < rayNum; i++) {
+					f[i] = Float.NaN;
+				}
+			} else if (shift < 0) {
+				System.arraycopy(f, 0, f, -shift, rayNum + shift);
+				for (int i = 0; i < -shift; i++) {
+					f[i] = Float.NaN;
+				}
+			}
+			final float[] bounds = index.changedBounds.items;
+			for (int k = 0, n = index.changedBounds.size; k < n; k += 4) {
+				final float u1 = Math.min(bounds[k], bounds[k + 2]) * -sin;
+				final float u2 = Math.max(bounds[k], bounds[k + 2]) * -sin;
+				final float v1 = bounds[k + 1] * cos;
+				final float v2 = bounds[k + 3] * cos;
+				final float min = Math.min(u1, u2) + Math.min(v1, v2);
+				final float max = Math.max(u1, u2) + Math.max(v1, v2);
+				final int from = Math.max(0,
+						MathUtils.floor(min / spacing) - column - 1);
+				final int to = Math.min(rayNum - 1,
+						MathUtils.ceil(max / spacing) - column + 1);
+				for (int i = from; i <= to; i++) {
+					f[i] = Float.NaN;
+				}
 			}
 		}
+		firstColumn = column;
+		columnSpacing = spacing;
+		columnStartT = startT;
+		columnFilterVersion = filterVersion;
+		columnsValid = index != null;
+		if (index != null) columnIndexUpdate = index.updateCount;
+		
+		for (int i = 0; i < rayNum; i++) {
+			final float columnU = (column + i) * spacing;
+			start[i].x = columnU * -sin + startT * cos;
+			start[i].y = columnU * cos + startT * sin;
+			end[i].x = start[i].x + length * cos;
+			end[i].y = start[i].y + length * sin;
+			if (f[i] != f[i]) {
+				m_index = i;
+				f[i] = 1f;
+				castRay(start[i], end[i]);
+			}
+			mx[i] = start[i].x + (end[i].x - start[i].x) * f[i];
+			my[i] = start[i].y + (end[i].y - start[i].y) * f[i];
+		}
+	}
+	
+	/**
+	 * Resolves all rays at once against occluders gathered with a single
+	 * query over the strip covered by them
+	 * 
+	 * <p>Rays are parallel and evenly spaced, so projecting an occluder on
+	 * the axis perpendicular to light direction directly gives the range of
+	 * rays it can block, and it is only tested against those.
+	 */
+	protected void sweepRays() {
+		final int last = rayNum - 1;
+		final float x1 = Math.min(Math.min(start[0].x, start[last].x),
+				Math.min(end[0].x, end[last].x));
+		final float y1 = Math.min(Math.min(start[0].y, start[last].y),
+				Math.min(end[0].y, end[last].y));
+		final float x2 = Math.max(Math.max(start[0].x, start[last].x),
+				Math.max(end[0].x, end[last].x));
+		final float y2 = Math.max(Math.max(start[0].y, start[last].y),
+				Math.max(end[0].y, end[last].y));
+		stripOccluders.clear();
+		final OccluderIndex index = rayHandler.occluderIndex;
+		if (index != null) {
+			index.query(this, x1, y1, x2, y2, stripOccluders);
+		} else {
+			rayHandler.world.QueryAABB(stripOccludersCallback, x1, y1, x2, y2);
+		}
+		final OccluderGrid grid = rayHandler.occluderGrid;
+		if (grid != null) {
+			grid.query(x1, y1, x2, y2, stripOccluders);
+		}
+		
+		for (int i = 0; i < rayNum; i++) {
+			f[i] = 1f;
+		}
+		
+		// ray i starts at u0 + i * step on the perpendicular axis
+		final float px = -sin;
+		final float py = cos;
+		final float u0 = start[0].x * px + start[0].y * py;
+		final float step = ((start[last].x - start[0].x) * px +
+				(start[last].y - start[0].y) * py) / last;
+		final Occluders occluders = stripOccluders;
+		for (int p = 0; p < occluders.size; p++) {
+			if (!acceptOccluder(occluders, p)) continue;
+			
+			int from = 0;
+			int to = last;
+			if (step > 0f) {
+				final float ua;
+				final float ub;
+				if (occluders.type[p] == Occluders.CIRCLE) {
+					final float center = occluders.x1[p] * px +
+							occluders.y1[p] * py;
+					ua = center - occluders.x2[p];
+					ub = center + occluders.x2[p];
+				} else {
+					ua = occluders.x1[p] * px + occluders.y1[p] * py;
+					ub = occluders.x2[p] * px + occluders.y2[p] * py;
+				}
+				// one ray margin on each side covers rounding
+				from = Math.max(from,
+						MathUtils.floor((Math.min(ua, ub) - u0) / step) - 1);
+				to = Math.min(to,
+						MathUtils.ceil((Math.max(ua, ub) - u0) / step) + 1);
+			}
+			for (int i = from; i <= to; i++) {
+				f[i] = occluders.intersect(p, start[i].x, start[i].y,
+						end[i].x - start[i].x, end[i].y - start[i].y, f[i]);
+			}
+		}
+		
+		for (int i = 0; i < rayNum; i++) {
+			mx[i] = start[i].x + (end[i].x - start[i].x) * f[i];
+			my[i] = start[i].y + (end[i].y - start[i].y) * f[i];
+		}
+	}
 
+	protected void setMesh() {
+		if (rayHandler.deferMeshUpload) {
+			meshPending = true;
+			return;
+		}
+		
 		// update light mesh
 		// ray starting point
 		int size = 0;
@@ -159,6 +391,7 @@ public class DirectionalLight extends Light {
 			segments[size++] = 1f;
 		}
 		lightMesh.setVertices(segments, 0, size);
+		storeVertices(lightMesh, segments, 0, size, true);
 
 		if (!soft || xray || rayHandler.pseudo3d) return;
 
@@ -175,6 +408,7 @@ public class DirectionalLight extends Light {
 			segments[size++] = 1f;
 		}
 		softShadowMesh.setVertices(segments, 0, size);
+		storeVertices(softShadowMesh, segments, 0, size, true);
 	}
 
 	@Override
@@ -391,6 +625,70 @@ public class DirectionalLight extends Light {
 		dynamicShadowMeshes.truncate(meshInd);
 	}
 	
+	/**
+	 * @return if shadows of this light are computed with a sweep
+	 */
+	public boolean isSweep() {
+		return sweep;
+	}
+	
+	/**
+	 * Enables/disables sweep mode
+	 * 
+	 * <p>If enabled the occluders in the strip covered by the light are
+	 * gathered with one query and every occluder is tested only against
+	 * the parallel rays passing its projection, instead of casting every
+	 * ray separately. Cost then depends on the number of occluder edges on
+	 * screen rather than on the number of rays.
+	 * 
+	 * <p>Default = false
+	 */
+	public void setSweep(boolean sweep) {
+		waitForUpdate();
+		this.sweep = sweep;
+		if (staticLight || motionAware) dirty = true;
+	}
+	
+	final QueryCallback stripOccludersCallback = new QueryCallback() {
+		
+		@Override
+		public boolean reportFixture(Fixture fixture) {
+			stripOccluders.add(fixture);
+			return true;
+		}
+		
+	};
+	
+	/**
+	 * @return if this light caches rays between updates
+	 */
+	public boolean isColumnCache() {
+		return columnCache;
+	}
+	
+	/**
+	 * Enables/disables column cache
+	 * 
+	 * <p>If enabled rays are anchored to world columns and their hits are
+	 * kept between updates, so panning the camera only casts the rays of
+	 * columns coming to the screen. Columns crossing bodies that moved or
+	 * geometry that changed are recast.
+	 * 
+	 * <p>Changes are detected by occluder index, which is enabled for the
+	 * rayHandler of this light too.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see RayHandler#setOccluderIndex(boolean)
+	 */
+	public void setColumnCache(boolean flag) {
+		waitForUpdate();
+		columnCache = flag;
+		columnsValid = false;
+		if (flag && rayHandler != null) rayHandler.setOccluderIndex(true);
+		if (staticLight || motionAware) dirty = true;
+	}
+	
 	@Override
 	public boolean contains (float x, float y) {
 		boolean oddNodes = false;
@@ -419,6 +717,7 @@ public class DirectionalLight extends Light {
 	 * <p> This could be used to simulate sun cycles **/
 	@Override
 	public void setHeight(float degrees) {
+		waitForUpdate();
 		if (degrees < 0f) height = 0f;
 		else {
 			degrees = degrees % 360;
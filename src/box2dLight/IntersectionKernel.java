@@ -0,0 +1,91 @@
+package box2dLight;
+
+/**
+ * Ray versus primitive intersection over plain float arrays
+ *
+ * <p>Rays are stored as struct of arrays: common start point, per ray end
+ * offsets and closest hit fractions. Each method intersects all rays with
+ * one primitive and lowers their fractions in place, with no calls or
+ * object access per ray. Math is the same as in {@link Occluders}, so
+ * results don't depend on the casting path.
+ *
+ * <p>This is the scalar kernel. Optional backends, like the Vector API
+ * kernel of the box2dlights-vector module, subclass it and replace
+ * {@link #instance} with the same results.
+ */
+class IntersectionKernel {
+
+	/** Kernel used by all casting paths **/
+	static IntersectionKernel instance = new IntersectionKernel();
+
+	IntersectionKernel() {
+	}
+
+	/**
+	 * Intersects rays in range [from, to) with segment (ax, ay) - (bx, by)
+	 *
+	 * @param oneSided
+	 *            if set, segment is only hit from its right side, as
+	 *            edges of counter clockwise polygons are
+	 */
+	void segment(float px, float py, float[] offsetX, float[] offsetY,
+			float[] fraction, int from, int to, float ax, float ay,
+			float bx, float by, boolean oneSided) {
+		final float ex = bx - ax;
+		final float ey = by - ay;
+		final float rr = ex * ex + ey * ey;
+		if (rr == 0f) return;
+		final float numerator = ey * (ax - px) - ex * (ay - py);
+
+		if (oneSided) {
+			for (int r = from; r < to; r++) {
+				final float dx = offsetX[r];
+				final float dy = offsetY[r];
+				final float denominator = ey * dx - ex * dy;
+				final float t = numerator / denominator;
+				final float s = ((px + t * dx - ax) * ex +
+						(py + t * dy - ay) * ey) / rr;
+				final float f = fraction[r];
+				fraction[r] = denominator < 0f && t >= 0f && t <= f &&
+						s >= 0f && s <= 1f ? t : f;
+			}
+		} else {
+			for (int r = from; r < to; r++) {
+				final float dx = offsetX[r];
+				final float dy = offsetY[r];
+				final float denominator = ey * dx - ex * dy;
+				final float t = numerator / denominator;
+				final float s = ((px + t * dx - ax) * ex +
+						(py + t * dy - ay) * ey) / rr;
+				final float f = fraction[r];
+				fraction[r] = denominator != 0f && t >= 0f && t <= f &&
+						s >= 0f && s <= 1f ? t : f;
+			}
+		}
+	}
+
+	/**
+	 * Intersects rays in range [from, to) with circle, rays starting inside
+	 * of it are not blocked
+	 */
+	void circle(float px, float py, float[] offsetX, float[] offsetY,
+			float[] fraction, int from, int to, float cx, float cy,
+			float radius) {
+		final float sx = px - cx;
+		final float sy = py - cy;
+		final float b = sx * sx + sy * sy - radius * radius;
+
+		for (int r = from; r < to; r++) {
+			final float dx = offsetX[r];
+			final float dy = offsetY[r];
+			final float c = sx * dx + sy * dy;
+			final float rr = dx * dx + dy * dy;
+			final float sigma = c * c - rr * b;
+			final float a = -(c + (float)Math.sqrt(sigma));
+			final float f = fraction[r];
+			fraction[r] = sigma >= 0f && rr >= 1.1920929E-7f &&
+					0f <= a && a <= f * rr ? a / rr : f;
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package box2dLight;
 
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.Filter;
@@ -26,6 +27,8 @@ public abstract class Light implements Disposable {
 	static final Color DefaultColor = new Color(0.75f, 0.75f, 0.5f, 0.75f);
 	static final float zeroColorBits = Color.toFloatBits(0f, 0f, 0f, 0f);
 	static final int MIN_RAYS = 3;
+	/** Part of ray length searched beyond previous hit by coherent rays **/
+	static final float COHERENCE_MARGIN = 0.1f;
 	
 	protected final Color color = new Color();
 	protected final Vector2 tmpPosition = new Vector2();
@@ -36,6 +39,7 @@ public abstract class Light implements Disposable {
 	protected boolean soft = true;
 	protected boolean xray = false;
 	protected boolean staticLight = false;
+	protected boolean motionAware = false;
 	protected boolean culled = false;
 	protected boolean dirty = true;
 	protected boolean ignoreBody = false;
@@ -73,6 +77,44 @@ public abstract class Light implements Disposable {
 	protected final Vector2 tmpVec = new Vector2();
 	protected final Vector2 center = new Vector2(); 
 	
+	/** Occluder tree traversal stack **/
+	final int[] occluderStack = new int[OccluderTree.STACK_SIZE];
+	final float[] occluderStackEntry = new float[OccluderTree.STACK_SIZE];
+	
+	/** Fixture hit by the last {@link #castRay}, null if nothing was hit **/
+	Fixture hitFixture;
+	/** Indexed primitive hit by the last {@link #castRay}, if it used index **/
+	Occluders hitOccluders;
+	int hitPrimitive;
+	
+	/** Vertices were computed off the GL thread and wait for upload **/
+	boolean meshPending = false;
+	
+	/** Static geometry hit cache variables **/
+	protected boolean staticCache = false;
+	float[] cachedRays;
+	float[] cachedStaticF;
+	Fixture[] cachedStaticFixture;
+	int cachedStaticVersion = -1;
+	int cachedFilterVersion = -1;
+	
+	/** Temporal coherence variables **/
+	protected boolean coherentRays = false;
+	float[] coherentF;
+	Occluders[] coherentOccluders;
+	int[] coherentPrimitive;
+	protected final Vector2 coherentEnd = new Vector2();
+	
+	/** Frame budget scheduler variables **/
+	protected float updateWeight = 1f;
+	/** Number of updates in a row this light was skipped by scheduler **/
+	int staleFrames = 0;
+	float schedulePriority;
+	
+	/** Interpolation variables, {@code null} until vertices are stored **/
+	VertexHistory lightHistory;
+	VertexHistory softShadowHistory;
+	
 	/** 
 	 * Creates new active light and automatically adds it to the specified
 	 * {@link RayHandler} instance.
@@ -91,6 +133,7 @@ public abstract class Light implements Disposable {
 	 */
 	public Light(RayHandler rayHandler, int rays, Color color,
 			float distance, float directionDegree) {
+		rayHandler.finishUpdate();
 		rayHandler.lightList.add(this);
 		this.rayHandler = rayHandler;
 		setRayNum(rays);
@@ -104,11 +147,31 @@ public abstract class Light implements Disposable {
 	 */
 	abstract void update();
 
+	/**
+	 * Follows attached body, if there is any
+	 */
+	void updateBody() {
+	}
+
+	/**
+	 * Stores bounds of the area this light reaches to given rectangle, used
+	 * by frame budget scheduler to find its screen coverage and center
+	 */
+	void getReach(Rectangle bounds) {
+		final float reach = distance + softShadowLength;
+		bounds.set(getX() - reach, getY() - reach, reach * 2f, reach * 2f);
+	}
+
 	/**
 	 * Render this light
 	 */
 	abstract void render();
 	
+	/**
+	 * Uploads computed light vertices to the meshes
+	 */
+	protected abstract void setMesh();
+	
 	/**
 	 * Render this light shadow
 	 */
@@ -116,6 +179,71 @@ public abstract class Light implements Disposable {
 		
 	}
 	
+	/**
+	 * Waits for pipelined update of lights to finish, so this light can be
+	 * changed
+	 */
+	final void waitForUpdate() {
+		if (rayHandler != null) rayHandler.finishUpdate();
+	}
+	
+	/**
+	 * Keeps vertices just uploaded to light or soft shadow mesh for
+	 * interpolation, if it is enabled
+	 * 
+	 * @param whole
+	 *            if vertices replaced whole mesh, otherwise they were
+	 *            written from offset
+	 */
+	void storeVertices(Mesh mesh, float[] vertices, int offset, int size,
+			boolean whole) {
+		if (!rayHandler.interpolation) return;
+		final int update = rayHandler.updateCount;
+		if (mesh == lightMesh) {
+			if (lightHistory == null) lightHistory = new VertexHistory();
+			lightHistory.store(update, vertices, offset, size, whole);
+		} else if (mesh == softShadowMesh) {
+			if (softShadowHistory == null) {
+				softShadowHistory = new VertexHistory();
+			}
+			softShadowHistory.store(update, vertices, offset, size, whole);
+		}
+	}
+	
+	/**
+	 * Uploads meshes interpolated between previous and current update
+	 * 
+	 * @param alpha
+	 *            0 for previous update, 1 for current one
+	 */
+	void interpolate(float alpha) {
+		final int update = rayHandler.updateCount;
+		final boolean stable = stableVertices();
+		if (lightHistory != null) {
+			lightHistory.apply(lightMesh, update, alpha, stable);
+		}
+		if (softShadowHistory != null) {
+			softShadowHistory.apply(softShadowMesh, update, alpha, stable);
+		}
+	}
+	
+	/**
+	 * @return if vertices of this light keep their meaning between updates,
+	 *         so they can be interpolated
+	 */
+	boolean stableVertices() {
+		return true;
+	}
+	
+	/**
+	 * Restores current meshes and forgets stored vertices
+	 */
+	void clearHistory() {
+		interpolate(1f);
+		lightHistory = null;
+		softShadowHistory = null;
+	}
+	
 	/**
 	 * Sets light distance
 	 * 
@@ -188,13 +316,14 @@ public abstract class Light implements Disposable {
 	 * @see #setColor(float, float, float, float)
 	 */
 	public void setColor(Color newColor) {
+		waitForUpdate();
 		if (newColor != null) {
 			color.set(newColor);
 		} else {
 			color.set(DefaultColor);
 		}
 		colorF = color.toFloatBits();
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 
 	/**
@@ -214,27 +343,39 @@ public abstract class Light implements Disposable {
 	 * @see #setColor(Color)
 	 */
 	public void setColor(float r, float g, float b, float a) {
+		waitForUpdate();
 		color.set(r, g, b, a);
 		colorF = color.toFloatBits();
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 	
 	/**
 	 * Adds light to specified RayHandler
 	 */
 	public void add(RayHandler rayHandler) {
+		rayHandler.finishUpdate();
 		this.rayHandler = rayHandler;
 		if (active) {
 			rayHandler.lightList.add(this);
 		} else {
 			rayHandler.disabledLights.add(this);
 		}
+		if (needsOccluderIndex()) rayHandler.setOccluderIndex(true);
+	}
+	
+	/**
+	 * @return if any mode enabled on this light works only with occluder
+	 *         index
+	 */
+	boolean needsOccluderIndex() {
+		return motionAware || staticCache;
 	}
 
 	/**
 	 * Removes light from specified RayHandler
 	 */
 	public void remove() {
+		waitForUpdate();
 		if (active) {
 			rayHandler.lightList.removeValue(this, false);
 		} else {
@@ -269,6 +410,7 @@ public abstract class Light implements Disposable {
 		if (active == this.active)
 			return;
 
+		waitForUpdate();
 		this.active = active;
 		if (rayHandler == null)
 			return;
@@ -298,8 +440,107 @@ public abstract class Light implements Disposable {
 	 * <p>Use the combination of x-ray and non x-ray lights wisely
 	 */
 	public void setXray(boolean xray) {
+		waitForUpdate();
 		this.xray = xray;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
+	}
+
+	/**
+	 * @return if this light is only recomputed when something around it
+	 *         changes
+	 */
+	public boolean isMotionAware() {
+		return motionAware;
+	}
+
+	/**
+	 * Enables/disables motion aware updates of this light
+	 * 
+	 * <p>Motion aware light is recomputed only when any of its parameters
+	 * changes, its attached body moves, or a body overlapping its area
+	 * moves, is added or removed. Directional lights, which cover the
+	 * camera, are recomputed when the camera moves too. Otherwise ray
+	 * casting and mesh upload are skipped. Unlike static light it still
+	 * reacts to dynamic objects, so most lights can be made motion aware
+	 * safely.
+	 * 
+	 * <p>Movement is detected by occluder index, which is enabled for the
+	 * rayHandler of this light too.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see RayHandler#setOccluderIndex(boolean)
+	 */
+	public void setMotionAware(boolean flag) {
+		waitForUpdate();
+		motionAware = flag;
+		dirty = true;
+		if (flag && rayHandler != null) rayHandler.setOccluderIndex(true);
+	}
+
+	/**
+	 * @return if any area changed in the last occluder index update could
+	 *         affect this light
+	 */
+	boolean affectedByMotion(OccluderIndex index) {
+		return index.changedAll || index.changedBounds.size > 0;
+	}
+
+	/**
+	 * @return if rays of this light start from their previous hits
+	 */
+	public boolean isCoherentRays() {
+		return coherentRays;
+	}
+
+	/**
+	 * Enables/disables temporal coherence of rays
+	 * 
+	 * <p>If enabled every ray remembers what it hit last time. With occluder
+	 * index the remembered primitive is tested first and only closer
+	 * occluders are searched for, otherwise the world is raycast only up to
+	 * a bit beyond the previous hit, and the rest of the ray is cast only
+	 * if nothing was found. Results are the same, slowly changing scenes
+	 * get cheaper.
+	 * 
+	 * <p>Default = false
+	 */
+	public void setCoherentRays(boolean flag) {
+		waitForUpdate();
+		coherentRays = flag;
+		coherentF = null;
+		coherentOccluders = null;
+		coherentPrimitive = null;
+	}
+
+	/**
+	 * @return if this light caches its ray hits against static bodies
+	 */
+	public boolean isStaticCache() {
+		return staticCache;
+	}
+
+	/**
+	 * Enables/disables caching of ray hits against static bodies
+	 * 
+	 * <p>If enabled the light remembers for every ray where it hits static
+	 * geometry, and as long as the ray doesn't change only dynamic and
+	 * kinematic bodies are tested against it again. Any movement, rotation
+	 * or distance change of the light recasts the changed rays, as well as
+	 * any static geometry change detected by occluder index.
+	 * 
+	 * <p>Works on top of occluder index, which is enabled for the
+	 * rayHandler of this light too.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see RayHandler#setOccluderIndex(boolean)
+	 */
+	public void setStaticCache(boolean flag) {
+		waitForUpdate();
+		staticCache = flag;
+		cachedStaticVersion = -1;
+		if (flag && rayHandler != null) rayHandler.setOccluderIndex(true);
 	}
 
 	/**
@@ -323,10 +564,32 @@ public abstract class Light implements Disposable {
 	 * <p>Reduce CPU burden of light about 90%
 	 */
 	public void setStaticLight(boolean staticLight) {
+		waitForUpdate();
 		this.staticLight = staticLight;
 		if (staticLight) dirty = true;
 	}
 
+	/**
+	 * @return weight of this light when scheduling updates within frame
+	 *         budget
+	 */
+	public float getUpdateWeight() {
+		return updateWeight;
+	}
+
+	/**
+	 * Sets weight of this light when scheduling updates within frame budget,
+	 * lights with higher weight are updated before the others
+	 * 
+	 * <p>Default = 1
+	 * 
+	 * @see RayHandler#setUpdateBudget(long)
+	 */
+	public void setUpdateWeight(float weight) {
+		waitForUpdate();
+		updateWeight = weight;
+	}
+
 	/**
 	 * @return if tips of this light beams are soft
 	 */
@@ -338,8 +601,9 @@ public abstract class Light implements Disposable {
 	 * Enables/disables softness on tips of this light beams
 	 */
 	public void setSoft(boolean soft) {
+		waitForUpdate();
 		this.soft = soft;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 
 	/**
@@ -356,8 +620,9 @@ public abstract class Light implements Disposable {
 	 * <p>Default: {@code 2.5f}
 	 */
 	public void setSoftnessLength(float softShadowLength) {
+		waitForUpdate();
 		this.softShadowLength = softShadowLength;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 	
 	/**
@@ -392,7 +657,9 @@ public abstract class Light implements Disposable {
 	 *               light. By default is set to {@code false}. 
 	 */
 	public void setIgnoreAttachedBody(boolean flag) {
+		waitForUpdate();
 		ignoreBody = flag;
+		cachedStaticVersion = -1;
 	}
 	
 	/**
@@ -403,6 +670,7 @@ public abstract class Light implements Disposable {
 	}
 	
 	public void setHeight(float height) {
+		waitForUpdate();
 		this.height = height;
 	}
 	
@@ -424,13 +692,16 @@ public abstract class Light implements Disposable {
 
 	/** Global lights filter **/
 	static private Filter filterA = null;
+	static int filterVersion = 0;
+	/** Filter of this light, overrides the global one if set **/
+	private Filter filter = null;
 
 	final RayCastCallback ray = new RayCastCallback() {
 		@Override
 		final public float reportRayFixture(Fixture fixture, Vector2 point,
 				Vector2 normal, float fraction) {
 			
-			if ((filterA != null) && !contactFilter(fixture))
+			if ((activeFilter() != null) && !contactFilter(fixture))
 				return -1;
 			
 			if (ignoreBody && fixture.getBody() == getBody())
@@ -442,19 +713,262 @@ public abstract class Light implements Disposable {
 			mx[m_index] = point.x;
 			my[m_index] = point.y;
 			f[m_index] = fraction;
+			hitFixture = fixture;
 			return fraction;
 		}
 	};
 
 	boolean contactFilter(Fixture fixtureB) {
 		Filter filterB = fixtureB.getFilterData();
+		return contactFilter(
+				filterB.categoryBits, filterB.groupIndex, filterB.maskBits);
+	}
 
+	boolean contactFilter(short categoryBits, short groupIndex,
+			short maskBits) {
+		final Filter filterA = activeFilter();
 		if (filterA.groupIndex != 0 &&
-			filterA.groupIndex == filterB.groupIndex)
+			filterA.groupIndex == groupIndex)
 			return filterA.groupIndex > 0;
 
-		return  (filterA.maskBits & filterB.categoryBits) != 0 &&
-				(filterA.categoryBits & filterB.maskBits) != 0;
+		return  (filterA.maskBits & categoryBits) != 0 &&
+				(filterA.categoryBits & maskBits) != 0;
+	}
+
+	/**
+	 * @return filter of this light if set, global filter otherwise, may be
+	 *         {@code null}
+	 */
+	final Filter activeFilter() {
+		return filter != null ? filter : filterA;
+	}
+
+	/**
+	 * Casts ray number {@link #m_index} from start to end point, closest hit
+	 * is stored to {@link #mx}, {@link #my} and {@link #f}
+	 * 
+	 * <p>Uses {@link RayHandler} occluder index if enabled, physics world
+	 * otherwise, and occluder grid if set
+	 */
+	void castRay(Vector2 start, Vector2 end) {
+		final OccluderIndex index = rayHandler.occluderIndex;
+		hitFixture = null;
+		hitOccluders = null;
+		if (index == null) {
+			if (coherentRays) {
+				castRayCoherent(start, end);
+			} else {
+				rayHandler.world.rayCast(ray, start, end);
+			}
+		} else {
+			final float fraction;
+			if (staticCache) {
+				fraction = castRayCached(index, start, end);
+			} else if (coherentRays) {
+				fraction = castRayCoherent(index, start, end);
+			} else {
+				fraction = index.rayCast(this, start.x, start.y, end.x, end.y);
+			}
+			if (fraction < 1f) {
+				mx[m_index] = start.x + (end.x - start.x) * fraction;
+				my[m_index] = start.y + (end.y - start.y) * fraction;
+				f[m_index] = fraction;
+			}
+		}
+		
+		final OccluderGrid grid = rayHandler.occluderGrid;
+		if (grid != null) {
+			final float fraction = grid.rayCast(
+					start.x, start.y, end.x, end.y, f[m_index]);
+			if (fraction < f[m_index]) {
+				mx[m_index] = start.x + (end.x - start.x) * fraction;
+				my[m_index] = start.y + (end.y - start.y) * fraction;
+				f[m_index] = fraction;
+				hitFixture = null;
+				hitOccluders = null;
+			}
+		}
+	}
+
+	/**
+	 * Casts ray against dynamic occluders only, static hit is taken from the
+	 * cache unless the ray or static geometry changed since it was stored
+	 * 
+	 * @return fraction of the closest hit, {@code 1f} if nothing was hit
+	 */
+	private float castRayCached(OccluderIndex index, Vector2 start,
+			Vector2 end) {
+		final int capacity = mx.length;
+		if (cachedStaticF == null || cachedStaticF.length < capacity) {
+			cachedRays = new float[capacity * 4];
+			cachedStaticF = new float[capacity];
+			cachedStaticFixture = new Fixture[capacity];
+			cachedStaticVersion = -1;
+		}
+		if (cachedStaticVersion != index.staticVersion ||
+			cachedFilterVersion != filterVersion) {
+			for (int i = 0; i < cachedStaticF.length; i++) {
+				cachedRays[i * 4] = Float.NaN;
+			}
+			cachedStaticVersion = index.staticVersion;
+			cachedFilterVersion = filterVersion;
+		}
+		
+		final int i = m_index;
+		final int k = i * 4;
+		if (cachedRays[k] != start.x || cachedRays[k + 1] != start.y ||
+			cachedRays[k + 2] != end.x || cachedRays[k + 3] != end.y) {
+			cachedRays[k] = start.x;
+			cachedRays[k + 1] = start.y;
+			cachedRays[k + 2] = end.x;
+			cachedRays[k + 3] = end.y;
+			cachedStaticF[i] = index.staticTree.rayCast(
+					this, start.x, start.y, end.x, end.y, 1f);
+			cachedStaticFixture[i] = hitFixture;
+		} else {
+			hitFixture = cachedStaticFixture[i];
+		}
+		return index.dynamicTree.rayCast(
+				this, start.x, start.y, end.x, end.y, cachedStaticF[i]);
+	}
+
+	/**
+	 * Tests primitive hit by this ray last time first, then searches the
+	 * index only for closer occluders
+	 * 
+	 * @return fraction of the closest hit, {@code 1f} if nothing was hit
+	 */
+	private float castRayCoherent(OccluderIndex index, Vector2 start,
+			Vector2 end) {
+		final int capacity = mx.length;
+		if (coherentOccluders == null || coherentOccluders.length < capacity) {
+			coherentOccluders = new Occluders[capacity];
+			coherentPrimitive = new int[capacity];
+		}
+		
+		final int i = m_index;
+		final float dx = end.x - start.x;
+		final float dy = end.y - start.y;
+		float maxFraction = 1f;
+		// any current primitive bounds the search, even if ray changed
+		final Occluders occluders = coherentOccluders[i];
+		final int p = coherentPrimitive[i];
+		if (occluders != null && p < occluders.size &&
+			acceptOccluder(occluders, p)) {
+			final float t = occluders.intersect(
+					p, start.x, start.y, dx, dy, 1f);
+			if (t < 1f) {
+				maxFraction = t;
+				hitFixture = occluders.fixture[p];
+				hitOccluders = occluders;
+				hitPrimitive = p;
+			}
+		}
+		
+		final float fraction = index.rayCast(
+				this, start.x, start.y, end.x, end.y, maxFraction);
+		coherentOccluders[i] = hitOccluders;
+		coherentPrimitive[i] = hitPrimitive;
+		return fraction;
+	}
+
+	/**
+	 * Raycasts world only up to {@link #COHERENCE_MARGIN} beyond the
+	 * previous hit of this ray, rest of the ray is cast if nothing was hit
+	 */
+	private void castRayCoherent(Vector2 start, Vector2 end) {
+		final int capacity = mx.length;
+		if (coherentF == null || coherentF.length < capacity) {
+			coherentF = new float[capacity];
+			for (int k = 0; k < capacity; k++) {
+				coherentF[k] = 1f;
+			}
+		}
+		
+		final int i = m_index;
+		final float limit = coherentF[i] + COHERENCE_MARGIN;
+		if (limit < 1f) {
+			coherentEnd.set(end).sub(start).scl(limit).add(start);
+			rayHandler.world.rayCast(ray, start, coherentEnd);
+			if (hitFixture != null) {
+				f[i] *= limit;
+			} else {
+				rayHandler.world.rayCast(ray, coherentEnd, end);
+				if (hitFixture != null) f[i] = limit + (1f - limit) * f[i];
+			}
+		} else {
+			rayHandler.world.rayCast(ray, start, end);
+		}
+		coherentF[i] = hitFixture != null ? f[i] : 1f;
+	}
+
+	/**
+	 * Same rules as {@link #ray} callback applies to indexed occluders
+	 * 
+	 * @return if occluder number i should cast shadow for this light
+	 */
+	final boolean acceptOccluder(Occluders occluders, int i) {
+		if ((activeFilter() != null) && !contactFilter(
+				occluders.categoryBits[i],
+				occluders.groupIndex[i],
+				occluders.maskBits[i]))
+			return false;
+		
+		if (ignoreBody && occluders.fixture[i] != null &&
+			occluders.fixture[i].getBody() == getBody())
+			return false;
+		
+		return true;
+	}
+
+	/**
+	 * Sets given contact filter for this light only, it overrides the
+	 * global filter
+	 * 
+	 * <p>With occluder index enabled, whole groups of occluders whose
+	 * categories don't pass the filter are skipped without testing them.
+	 * 
+	 * @param filter
+	 *            filter of this light, {@code null} to use global filter
+	 */
+	public void setFilter(Filter filter) {
+		waitForUpdate();
+		assignFilter(filter);
+		if (staticLight || motionAware) dirty = true;
+	}
+
+	/**
+	 * Sets filter of this light without waiting for pipelined update, for
+	 * lights changed by the update itself
+	 */
+	void assignFilter(Filter filter) {
+		this.filter = filter;
+		cachedStaticVersion = -1;
+	}
+
+	/**
+	 * Creates new contact filter for this light with given parameters, it
+	 * overrides the global filter
+	 * 
+	 * @param categoryBits - see {@link Filter#categoryBits}
+	 * @param groupIndex   - see {@link Filter#groupIndex}
+	 * @param maskBits     - see {@link Filter#maskBits}
+	 */
+	public void setFilter(short categoryBits, short groupIndex,
+			short maskBits) {
+		final Filter filter = new Filter();
+		filter.categoryBits = categoryBits;
+		filter.groupIndex = groupIndex;
+		filter.maskBits = maskBits;
+		setFilter(filter);
+	}
+
+	/**
+	 * @return contact filter of this light, {@code null} if the global
+	 *         filter is used
+	 */
+	public Filter getFilter() {
+		return filter;
 	}
 
 	/**
@@ -462,6 +976,7 @@ public abstract class Light implements Disposable {
 	 */
 	static public void setContactFilter(Filter filter) {
 		filterA = filter;
+		filterVersion++;
 	}
 
 	/**
@@ -477,6 +992,7 @@ public abstract class Light implements Disposable {
 		filterA.categoryBits = categoryBits;
 		filterA.groupIndex = groupIndex;
 		filterA.maskBits = maskBits;
+		filterVersion++;
 	}
 	
 	protected boolean onDynamicCallback(Fixture fixture) {
@@ -0,0 +1,166 @@
+package box2dLight;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.badlogic.gdx.graphics.Color;
+
+/**
+ * Queue of light changes posted by any thread and applied by
+ * {@link RayHandler#update()}
+ *
+ * <p>Light setters must only be called by the thread updating and
+ * rendering lights. Other threads, like game logic or scripting workers,
+ * post changes here instead. Posting never blocks: commands are pushed to
+ * a lock-free stack, which update takes over whole with one atomic swap
+ * and applies in the order the commands were posted.
+ *
+ * <p>Commands posted by one thread are applied in order, commands of
+ * different threads may interleave.
+ */
+public class LightCommandQueue {
+
+	static final int POSITION = 0;
+	static final int COLOR = 1;
+	static final int DISTANCE = 2;
+	static final int DIRECTION = 3;
+	static final int ACTIVE = 4;
+	static final int REMOVE = 5;
+
+	/** Single light change, linked to the command posted before it **/
+	static final class Command {
+		final int type;
+		final Light light;
+		final float a, b, c, d;
+		Command next;
+
+		Command(int type, Light light, float a, float b, float c, float d) {
+			this.type = type;
+			this.light = light;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.d = d;
+		}
+	}
+
+	/** Last posted command, {@code null} if queue is empty **/
+	private final AtomicReference<Command> head =
+			new AtomicReference<Command>();
+
+	/**
+	 * Posts {@link Light#setPosition(float, float)} call
+	 */
+	public void setPosition(Light light, float x, float y) {
+		post(new Command(POSITION, light, x, y, 0f, 0f));
+	}
+
+	/**
+	 * Posts {@link Light#setColor(float, float, float, float)} call
+	 */
+	public void setColor(Light light, float r, float g, float b, float a) {
+		post(new Command(COLOR, light, r, g, b, a));
+	}
+
+	/**
+	 * Posts {@link Light#setColor(Color)} call, color is copied
+	 */
+	public void setColor(Light light, Color color) {
+		final Color c = color != null ? color : Light.DefaultColor;
+		post(new Command(COLOR, light, c.r, c.g, c.b, c.a));
+	}
+
+	/**
+	 * Posts {@link Light#setDistance(float)} call
+	 */
+	public void setDistance(Light light, float distance) {
+		post(new Command(DISTANCE, light, distance, 0f, 0f, 0f));
+	}
+
+	/**
+	 * Posts {@link Light#setDirection(float)} call
+	 */
+	public void setDirection(Light light, float directionDegree) {
+		post(new Command(DIRECTION, light, directionDegree, 0f, 0f, 0f));
+	}
+
+	/**
+	 * Posts {@link Light#setActive(boolean)} call
+	 */
+	public void setActive(Light light, boolean active) {
+		post(new Command(ACTIVE, light, active ? 1f : 0f, 0f, 0f, 0f));
+	}
+
+	/**
+	 * Posts removal of light from its rayHandler, light is disposed too,
+	 * unless it was already removed
+	 *
+	 * @see Light#remove()
+	 * @see Light#dispose()
+	 */
+	public void remove(Light light) {
+		post(new Command(REMOVE, light, 0f, 0f, 0f, 0f));
+	}
+
+	/**
+	 * @return if there are no commands waiting to be applied
+	 */
+	public boolean isEmpty() {
+		return head.get() == null;
+	}
+
+	private void post(Command command) {
+		Command last;
+		do {
+			last = head.get();
+			command.next = last;
+		} while (!head.compareAndSet(last, command));
+	}
+
+	/**
+	 * Applies all commands posted so far, called by the thread updating
+	 * lights
+	 */
+	void execute() {
+		Command command = head.getAndSet(null);
+		if (command == null) return;
+
+		// stack holds newest command first
+		Command first = null;
+		while (command != null) {
+			final Command next = command.next;
+			command.next = first;
+			first = command;
+			command = next;
+		}
+		for (command = first; command != null; command = command.next) {
+			apply(command);
+		}
+	}
+
+	private static void apply(Command command) {
+		final Light light = command.light;
+		switch (command.type) {
+		case POSITION:
+			light.setPosition(command.a, command.b);
+			break;
+		case COLOR:
+			light.setColor(command.a, command.b, command.c, command.d);
+			break;
+		case DISTANCE:
+			light.setDistance(command.a);
+			break;
+		case DIRECTION:
+			light.setDirection(command.a);
+			break;
+		case ACTIVE:
+			light.setActive(command.a != 0f);
+			break;
+		case REMOVE:
+			if (light.rayHandler == null) break;
+			light.remove();
+			light.dispose();
+			break;
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package box2dLight;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Filter;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Group of positional lights at the same spot sharing one ray cast
+ *
+ * <p>Group casts a full circle of evenly spaced rays at the largest
+ * distance of its lights once per update. Every light with the same
+ * origin, contact filter and ignored body builds its shape from these
+ * rays, clamped to its own distance and arc, instead of casting its own.
+ * Cones only cast the two rays along their edges. Rays are cast from the
+ * first active light of the group, lights that don't match it cast their
+ * own rays.
+ *
+ * <p>Number of vertices of grouped lights follows the group, their own
+ * number of rays isn't used while grouped. Lights in visibility polygon
+ * or adaptive mode don't use the group.
+ */
+public class LightGroup {
+
+	final RayHandler rayHandler;
+	final Array<PositionalLight> lights = new Array<PositionalLight>(false, 4);
+
+	/** Light that casts shared rays, not added to rayHandler **/
+	final PointLight caster;
+	/** RayHandler update in which shared rays were cast, -1 if not yet **/
+	private int castUpdate = -1;
+	private final Vector2 castEnd = new Vector2();
+
+	/**
+	 * Creates empty group
+	 *
+	 * @param rayHandler
+	 *            not {@code null} instance of RayHandler the lights use
+	 * @param rays
+	 *            number of shared rays over full circle
+	 */
+	public LightGroup(RayHandler rayHandler, int rays) {
+		this.rayHandler = rayHandler;
+		caster = new PointLight(rayHandler, rays, null, 0f, 0f, 0f);
+		rayHandler.lightList.removeValue(caster, true);
+	}
+
+	/**
+	 * Adds light to this group, removing it from its previous group
+	 */
+	public void add(PositionalLight light) {
+		if (light.group == this) return;
+		rayHandler.finishUpdate();
+		if (light.group != null) light.group.remove(light);
+		lights.add(light);
+		light.group = this;
+		light.dirty = true;
+	}
+
+	/**
+	 * Removes light from this group, it casts its own rays again
+	 */
+	public void remove(PositionalLight light) {
+		if (light.group != this) return;
+		rayHandler.finishUpdate();
+		lights.removeValue(light, true);
+		light.group = null;
+		if (light.sharedDirections) light.restoreDirections();
+		light.dirty = true;
+	}
+
+	/** @return lights of this group, must not be modified **/
+	public Array<PositionalLight> getLights() {
+		return lights;
+	}
+
+	/** @return number of shared rays **/
+	public int getRayNum() {
+		return caster.rayNum;
+	}
+
+	/**
+	 * Removes all lights and frees resources of this group
+	 */
+	public void dispose() {
+		while (lights.size > 0) {
+			remove(lights.peek());
+		}
+		caster.dispose();
+	}
+
+	/**
+	 * Casts shared rays from the first active light of this group, if it
+	 * wasn't done during current rayHandler update yet
+	 *
+	 * @return if given light can use shared rays
+	 */
+	synchronized boolean cast(PositionalLight light) {
+		if (castUpdate != rayHandler.updateCount) {
+			castFrom(anchor(light));
+			castUpdate = rayHandler.updateCount;
+		}
+		return shares(light);
+	}
+
+	/**
+	 * @return first active light of this group, or given light if there
+	 *         is none
+	 */
+	private PositionalLight anchor(PositionalLight light) {
+		for (int i = 0; i < lights.size; i++) {
+			if (lights.get(i).active) return lights.get(i);
+		}
+		return light;
+	}
+
+	private void castFrom(PositionalLight anchor) {
+		// anchor may be updated after the light asking for the cast
+		anchor.updateBody();
+
+		float distance = 0f;
+		for (int i = 0; i < lights.size; i++) {
+			distance = Math.max(distance, lights.get(i).distance);
+		}
+		final PointLight c = caster;
+		c.start.set(anchor.start);
+		if (c.getFilter() != anchor.activeFilter()) {
+			c.assignFilter(anchor.activeFilter());
+		}
+		c.ignoreBody = anchor.ignoreBody;
+		c.body = anchor.getBody();
+		if (c.distance != distance) {
+			c.distance = distance;
+			c.setEndPoints();
+		}
+
+		for (int i = 0; i < c.rayNum; i++) {
+			c.m_index = i;
+			c.f[i] = 1f;
+			castEnd.x = c.start.x + c.endX[i];
+			castEnd.y = c.start.y + c.endY[i];
+			c.mx[i] = castEnd.x;
+			c.my[i] = castEnd.y;
+			c.castRay(c.start, castEnd);
+		}
+	}
+
+	/**
+	 * @return if light is at the origin of last cast and would accept the
+	 *         same occluders
+	 */
+	private boolean shares(PositionalLight light) {
+		final PointLight c = caster;
+		return c.start.x == light.start.x && c.start.y == light.start.y &&
+				sameFilter(c.activeFilter(), light.activeFilter()) &&
+				c.ignoreBody == light.ignoreBody &&
+				(!c.ignoreBody || c.body == light.getBody());
+	}
+
+	private static boolean sameFilter(Filter a, Filter b) {
+		if (a == b) return true;
+		if (a == null || b == null) return false;
+		return a.categoryBits == b.categoryBits &&
+				a.groupIndex == b.groupIndex && a.maskBits == b.maskBits;
+	}
+
+}
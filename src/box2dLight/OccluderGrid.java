@@ -0,0 +1,282 @@
+package box2dLight;
+
+import com.badlogic.gdx.utils.FloatArray;
+
+/**
+ * Grid of solid tiles casting shadows without any Box2D bodies
+ *
+ * <p>Every cell is either empty or a solid square. Rays walk the grid cell
+ * by cell (Amanatides-Woo traversal), so ray cost only depends on the
+ * number of cells it crosses. Like Box2D polygons, solid cells are only
+ * hit from outside, ray starting inside a wall passes until it leaves it.
+ *
+ * <p>Set it with {@link RayHandler#setOccluderGrid(OccluderGrid)}, lights
+ * then take the closer of the grid and the physics world hits.
+ */
+public class OccluderGrid {
+
+	final int width;
+	final int height;
+	final float cellSize;
+	final float originX;
+	final float originY;
+	final byte[] cells;
+
+	/** RayHandler using this grid, waited for before cells change **/
+	RayHandler rayHandler;
+
+	/** Changed cells not yet reported to lights, in cell coordinates **/
+	private int changedX1;
+	private int changedY1;
+	private int changedX2 = -1;
+	private int changedY2 = -1;
+
+	/**
+	 * Creates empty grid
+	 *
+	 * @param width
+	 *            number of columns
+	 * @param height
+	 *            number of rows
+	 * @param cellSize
+	 *            cell side length in world units
+	 * @param originX
+	 *            horizontal world position of the lower left grid corner
+	 * @param originY
+	 *            vertical world position of the lower left grid corner
+	 */
+	public OccluderGrid(int width, int height, float cellSize, float originX,
+			float originY) {
+		this.width = width;
+		this.height = height;
+		this.cellSize = cellSize;
+		this.originX = originX;
+		this.originY = originY;
+		cells = new byte[width * height];
+	}
+
+	/**
+	 * Sets if cell in given column and row blocks light
+	 */
+	public void setSolid(int x, int y, boolean solid) {
+		if (rayHandler != null) rayHandler.finishUpdate();
+		cells[y * width + x] = solid ? (byte)1 : (byte)0;
+		markChanged(x, y, x, y);
+	}
+
+	/**
+	 * @return if cell in given column and row blocks light, cells outside
+	 *         of the grid are empty
+	 */
+	public boolean isSolid(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) return false;
+		return cells[y * width + x] != 0;
+	}
+
+	/**
+	 * Makes all cells empty
+	 */
+	public void clear() {
+		if (rayHandler != null) rayHandler.finishUpdate();
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = 0;
+		}
+		invalidate();
+	}
+
+	/**
+	 * Marks whole grid as changed for motion aware lights
+	 */
+	void invalidate() {
+		markChanged(0, 0, width - 1, height - 1);
+	}
+
+	/** @return number of columns **/
+	public int getWidth() {
+		return width;
+	}
+
+	/** @return number of rows **/
+	public int getHeight() {
+		return height;
+	}
+
+	/** @return cell side length in world units **/
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Casts ray through the grid
+	 *
+	 * @return fraction at which ray enters first solid cell, or maxFraction
+	 *         if nothing was hit before it
+	 */
+	public float rayCast(float startX, float startY, float endX, float endY,
+			float maxFraction) {
+		final float dx = endX - startX;
+		final float dy = endY - startY;
+
+		// clip ray to grid bounds
+		float tEnter = 0f;
+		float tExit = maxFraction;
+		final float maxX = originX + width * cellSize;
+		final float maxY = originY + height * cellSize;
+		if (dx != 0f) {
+			final float t1 = (originX - startX) / dx;
+			final float t2 = (maxX - startX) / dx;
+			tEnter = Math.max(tEnter, Math.min(t1, t2));
+			tExit = Math.min(tExit, Math.max(t1, t2));
+		} else if (startX < originX || startX >= maxX) {
+			return maxFraction;
+		}
+		if (dy != 0f) {
+			final float t1 = (originY - startY) / dy;
+			final float t2 = (maxY - startY) / dy;
+			tEnter = Math.max(tEnter, Math.min(t1, t2));
+			tExit = Math.min(tExit, Math.max(t1, t2));
+		} else if (startY < originY || startY >= maxY) {
+			return maxFraction;
+		}
+		if (tEnter > tExit) return maxFraction;
+
+		final float invCell = 1f / cellSize;
+		int x = cell((startX + dx * tEnter - originX) * invCell, width);
+		int y = cell((startY + dy * tEnter - originY) * invCell, height);
+
+		final int stepX = dx > 0f ? 1 : -1;
+		final int stepY = dy > 0f ? 1 : -1;
+		final float deltaX = dx != 0f ? Math.abs(cellSize / dx) : Float.POSITIVE_INFINITY;
+		final float deltaY = dy != 0f ? Math.abs(cellSize / dy) : Float.POSITIVE_INFINITY;
+		float nextX = dx != 0f ?
+				(originX + (x + (stepX > 0 ? 1 : 0)) * cellSize - startX) / dx :
+				Float.POSITIVE_INFINITY;
+		float nextY = dy != 0f ?
+				(originY + (y + (stepY > 0 ? 1 : 0)) * cellSize - startY) / dy :
+				Float.POSITIVE_INFINITY;
+
+		// ray starting inside a wall ignores it, like Box2D polygons do
+		boolean inside = tEnter == 0f && cells[y * width + x] != 0;
+		if (!inside && cells[y * width + x] != 0) return tEnter;
+
+		while (true) {
+			final float t;
+			if (nextX < nextY) {
+				t = nextX;
+				nextX += deltaX;
+				x += stepX;
+				if (x < 0 || x >= width) return maxFraction;
+			} else {
+				t = nextY;
+				nextY += deltaY;
+				y += stepY;
+				if (y < 0 || y >= height) return maxFraction;
+			}
+			if (t > tExit) return maxFraction;
+
+			if (cells[y * width + x] != 0) {
+				if (!inside) return t;
+			} else {
+				inside = false;
+			}
+		}
+	}
+
+	/**
+	 * Adds boundary edges of solid cells overlapping given rectangle to
+	 * target as polygon edges, neighbouring edges are merged
+	 */
+	void query(float x1, float y1, float x2, float y2, Occluders target) {
+		final float invCell = 1f / cellSize;
+		final int cx1 = Math.max(0, (int)Math.floor((x1 - originX) * invCell));
+		final int cy1 = Math.max(0, (int)Math.floor((y1 - originY) * invCell));
+		final int cx2 = Math.min(width - 1, (int)Math.floor((x2 - originX) * invCell));
+		final int cy2 = Math.min(height - 1, (int)Math.floor((y2 - originY) * invCell));
+		if (cx1 > cx2 || cy1 > cy2) return;
+
+		// edges are counter clockwise around solid area, so hit from outside
+		for (int y = cy1; y <= cy2; y++) {
+			final float bottom = originY + y * cellSize;
+			final float top = bottom + cellSize;
+			int bottomRun = -1;
+			int topRun = -1;
+			for (int x = cx1; x <= cx2 + 1; x++) {
+				final boolean solid = x <= cx2 && isSolid(x, y);
+				final boolean bottomEdge = solid && !isSolid(x, y - 1);
+				final boolean topEdge = solid && !isSolid(x, y + 1);
+				if (bottomEdge && bottomRun < 0) bottomRun = x;
+				if (!bottomEdge && bottomRun >= 0) {
+					target.addEdge(originX + bottomRun * cellSize, bottom,
+							originX + x * cellSize, bottom);
+					bottomRun = -1;
+				}
+				if (topEdge && topRun < 0) topRun = x;
+				if (!topEdge && topRun >= 0) {
+					target.addEdge(originX + x * cellSize, top,
+							originX + topRun * cellSize, top);
+					topRun = -1;
+				}
+			}
+		}
+		for (int x = cx1; x <= cx2; x++) {
+			final float left = originX + x * cellSize;
+			final float right = left + cellSize;
+			int leftRun = -1;
+			int rightRun = -1;
+			for (int y = cy1; y <= cy2 + 1; y++) {
+				final boolean solid = y <= cy2 && isSolid(x, y);
+				final boolean leftEdge = solid && !isSolid(x - 1, y);
+				final boolean rightEdge = solid && !isSolid(x + 1, y);
+				if (rightEdge && rightRun < 0) rightRun = y;
+				if (!rightEdge && rightRun >= 0) {
+					target.addEdge(right, originY + rightRun * cellSize,
+							right, originY + y * cellSize);
+					rightRun = -1;
+				}
+				if (leftEdge && leftRun < 0) leftRun = y;
+				if (!leftEdge && leftRun >= 0) {
+					target.addEdge(left, originY + y * cellSize,
+							left, originY + leftRun * cellSize);
+					leftRun = -1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves bounds of cells changed since last call to given array as
+	 * minX, minY, maxX and maxY in world coordinates
+	 */
+	void flushChanges(FloatArray changed) {
+		if (changedX2 < changedX1) return;
+
+		changed.add(originX + changedX1 * cellSize);
+		changed.add(originY + changedY1 * cellSize);
+		changed.add(originX + (changedX2 + 1) * cellSize);
+		changed.add(originY + (changedY2 + 1) * cellSize);
+		changedX1 = 0;
+		changedY1 = 0;
+		changedX2 = -1;
+		changedY2 = -1;
+	}
+
+	private void markChanged(int x1, int y1, int x2, int y2) {
+		if (changedX2 < changedX1) {
+			changedX1 = x1;
+			changedY1 = y1;
+			changedX2 = x2;
+			changedY2 = y2;
+		} else {
+			changedX1 = Math.min(changedX1, x1);
+			changedY1 = Math.min(changedY1, y1);
+			changedX2 = Math.max(changedX2, x2);
+			changedY2 = Math.max(changedY2, y2);
+		}
+	}
+
+	private static int cell(float position, int count) {
+		final int i = (int)Math.floor(position);
+		return i < 0 ? 0 : (i >= count ? count - 1 : i);
+	}
+
+}
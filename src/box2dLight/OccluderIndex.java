@@ -0,0 +1,207 @@
+package box2dLight;
+
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.Shape;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+
+/**
+ * Java side index of the physics world geometry used by lights instead of
+ * {@link World#rayCast}, so casting a ray doesn't cross JNI at all
+ *
+ * <p>Fixtures of static bodies are kept in one tree that is only rebuilt
+ * when static bodies or their fixtures are added or removed, fixtures of
+ * dynamic and kinematic bodies are kept in another one, which follows
+ * their bodies every frame.
+ * 
+ * <p>Added and removed fixtures are found by the shapes of indexed
+ * fixtures. Box2D pools its body and fixture objects, so a body destroyed
+ * and created again keeps the same objects, but their shapes are created
+ * anew.
+ *
+ * <p>Changes that can't be detected automatically (moving static bodies,
+ * changing shapes, filters or body activity) require a call to
+ * {@link RayHandler#updateOccluderIndex()}.
+ */
+public class OccluderIndex {
+
+	/** Number of updates dynamic tree is refitted before it is rebuilt **/
+	static final int REFIT_LIMIT = 15;
+	
+	final Occluders staticOccluders = new Occluders();
+	final Occluders dynamicOccluders = new Occluders();
+	final OccluderTree staticTree = new OccluderTree(staticOccluders);
+	final OccluderTree dynamicTree = new OccluderTree(dynamicOccluders);
+
+	/**
+	 * Bounds of dynamic bodies moved during last update, 4 floats per body
+	 * covering its old and new position
+	 */
+	final FloatArray changedBounds = new FloatArray();
+	/**
+	 * Bodies of the first changed bounds, remaining bounds come from
+	 * occluder grid
+	 */
+	final Array<Body> changedBodies = new Array<Body>();
+	/** Set if last update rebuilt the index, so anything could change **/
+	boolean changedAll = true;
+
+	/** Incremented whenever static occluders are rebuilt **/
+	int staticVersion = 0;
+	/** Number of updates, tells if changes of some update were missed **/
+	int updateCount = 0;
+	
+	private final Array<Body> bodies = new Array<Body>();
+	/** Shapes of all fixtures of bodies, in order of their fixture lists **/
+	private final Array<Shape> shapes = new Array<Shape>();
+	private Array<Body> staticBodies = new Array<Body>();
+	private Array<Body> newStaticBodies = new Array<Body>();
+	private Array<Shape> staticShapes = new Array<Shape>();
+	private Array<Shape> newStaticShapes = new Array<Shape>();
+	private int bodyCount = -1;
+	private boolean invalid = true;
+	/** Number of dynamic tree refits since it was last built **/
+	private int refits = 0;
+
+	/**
+	 * Forces full rebuild of the index on next {@link #update(World)} call
+	 */
+	public void invalidate() {
+		invalid = true;
+	}
+
+	/**
+	 * Synchronizes the index with world, called once per frame before any
+	 * light is updated
+	 */
+	void update(World world) {
+		updateCount++;
+		changedBounds.clear();
+		changedBodies.clear();
+		changedAll = false;
+		if (invalid || world.getBodyCount() != bodyCount || !sameShapes()) {
+			rebuild(world);
+			changedAll = true;
+		} else if (dynamicOccluders.updateTransforms(changedBounds, changedBodies)) {
+			// refitted nodes grow apart as bodies move, so rebuild now and then
+			if (refits < REFIT_LIMIT) {
+				dynamicTree.refit();
+				refits++;
+			} else {
+				dynamicTree.build();
+				refits = 0;
+			}
+		}
+	}
+
+	/**
+	 * Casts ray against all indexed fixtures
+	 *
+	 * @return fraction of the closest hit accepted by light, {@code 1f} if
+	 *         nothing was hit
+	 */
+	public float rayCast(Light light, float startX, float startY,
+			float endX, float endY) {
+		return rayCast(light, startX, startY, endX, endY, 1f);
+	}
+
+	/**
+	 * Casts ray against all indexed fixtures, ignoring hits further than
+	 * maxFraction
+	 *
+	 * @return fraction of the closest hit accepted by light, or maxFraction
+	 *         if nothing was hit before it
+	 */
+	public float rayCast(Light light, float startX, float startY,
+			float endX, float endY, float maxFraction) {
+		final float fraction = staticTree.rayCast(
+				light, startX, startY, endX, endY, maxFraction);
+		return dynamicTree.rayCast(
+				light, startX, startY, endX, endY, fraction);
+	}
+
+	/**
+	 * Copies all indexed primitives whose bounds overlap given rectangle to
+	 * target, used instead of {@link World#QueryAABB}
+	 */
+	public void query(Light light, float x1, float y1, float x2, float y2,
+			Occluders target) {
+		staticTree.query(light, x1, y1, x2, y2, target);
+		dynamicTree.query(light, x1, y1, x2, y2, target);
+	}
+
+	private void rebuild(World world) {
+		dynamicOccluders.clear();
+		newStaticBodies.clear();
+		newStaticShapes.clear();
+		shapes.clear();
+
+		world.getBodies(bodies);
+		bodyCount = bodies.size;
+		for (Body body : bodies) {
+			final boolean isStatic = body.isActive() &&
+					body.getType() == BodyType.StaticBody;
+			for (Fixture fixture : body.getFixtureList()) {
+				final Shape shape = fixture.getShape();
+				shapes.add(shape);
+				if (isStatic) newStaticShapes.add(shape);
+			}
+			if (!body.isActive()) continue;
+
+			if (isStatic) {
+				newStaticBodies.add(body);
+			} else {
+				dynamicOccluders.add(body);
+			}
+		}
+		dynamicTree.build();
+		refits = 0;
+
+		// static part survives adding and removing of dynamic bodies
+		final Array<Body> previous = staticBodies;
+		staticBodies = newStaticBodies;
+		newStaticBodies = previous;
+		final Array<Shape> previousShapes = staticShapes;
+		staticShapes = newStaticShapes;
+		newStaticShapes = previousShapes;
+		if (invalid || !sameItems(staticBodies, previous) ||
+			!sameItems(staticShapes, previousShapes)) {
+			staticOccluders.clear();
+			for (Body body : staticBodies) {
+				staticOccluders.add(body);
+			}
+			staticTree.build();
+			staticVersion++;
+		}
+		invalid = false;
+	}
+
+	private static boolean sameItems(Array<?> a, Array<?> b) {
+		if (a.size != b.size) return false;
+		for (int i = 0; i < a.size; i++) {
+			if (a.get(i) != b.get(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return if indexed bodies still have the fixtures they had when the
+	 *         index was built, shapes are only fetched from Box2D for new
+	 *         fixtures
+	 */
+	private boolean sameShapes() {
+		int i = 0;
+		for (Body body : bodies) {
+			for (Fixture fixture : body.getFixtureList()) {
+				if (i == shapes.size || shapes.get(i++) != fixture.getShape()) {
+					return false;
+				}
+			}
+		}
+		return i == shapes.size;
+	}
+
+}
@@ -0,0 +1,354 @@
+package box2dLight;
+
+import com.badlogic.gdx.physics.box2d.Filter;
+
+/**
+ * Bounding volume hierarchy over {@link Occluders} primitives
+ *
+ * <p>Nodes are stored in flat arrays. Tree is built top-down by splitting
+ * primitives at the median of their centers along the longest axis, and
+ * can be refitted without rebuilding when primitives move a bit.
+ *
+ * <p>Every node also keeps union of filter categories and masks of its
+ * primitives, so lights with contact filter skip whole subtrees of
+ * occluders they can't see.
+ */
+public class OccluderTree {
+
+	/** Maximal number of primitives in leaf node **/
+	static final int LEAF_SIZE = 4;
+
+	/** Traversal stack size, enough for any tree of median splits **/
+	static final int STACK_SIZE = 64;
+
+	final Occluders occluders;
+
+	int nodeCount;
+	float[] minX = new float[16];
+	float[] minY = new float[16];
+	float[] maxX = new float[16];
+	float[] maxY = new float[16];
+	/** Index of the first child for inner nodes, -1 for leaves **/
+	int[] child = new int[16];
+	/** First and number of primitives in {@link #order} for leaves **/
+	int[] start = new int[16];
+	int[] count = new int[16];
+	/** Union of primitive filter category and mask bits under the node **/
+	short[] categories = new short[16];
+	short[] masks = new short[16];
+
+	/** Primitive indices sorted by leaves **/
+	int[] order = new int[16];
+	private float[] centers = new float[16];
+
+	public OccluderTree(Occluders occluders) {
+		this.occluders = occluders;
+	}
+
+	/**
+	 * Rebuilds the tree from current primitive positions
+	 */
+	public void build() {
+		final int size = occluders.size;
+		if (order.length < size) {
+			order = new int[size];
+			centers = new float[size * 2];
+		}
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+			centers[i * 2] = (occluders.minX(i) + occluders.maxX(i)) * 0.5f;
+			centers[i * 2 + 1] = (occluders.minY(i) + occluders.maxY(i)) * 0.5f;
+		}
+		nodeCount = 0;
+		if (size == 0) return;
+
+		buildNode(newNode(), 0, size);
+	}
+
+	/**
+	 * Recalculates node bounds after primitives moved, keeps tree topology
+	 */
+	public void refit() {
+		// children are always stored after their parent
+		for (int n = nodeCount - 1; n >= 0; n--) {
+			final int c = child[n];
+			if (c < 0) {
+				fitLeaf(n);
+			} else {
+				minX[n] = Math.min(minX[c], minX[c + 1]);
+				minY[n] = Math.min(minY[c], minY[c + 1]);
+				maxX[n] = Math.max(maxX[c], maxX[c + 1]);
+				maxY[n] = Math.max(maxY[c], maxY[c + 1]);
+			}
+		}
+	}
+
+	/**
+	 * Casts ray against primitives in the tree
+	 * 
+	 * <p>Closest hit is stored in {@link Light#hitFixture},
+	 * {@link Light#hitOccluders} and {@link Light#hitPrimitive}
+	 *
+	 * @return fraction of the closest hit accepted by light, or maxFraction
+	 *         if nothing was hit before it
+	 */
+	public float rayCast(Light light, float startX, float startY,
+			float endX, float endY, float maxFraction) {
+		if (nodeCount == 0) return maxFraction;
+
+		final Occluders occluders = this.occluders;
+		final int[] stack = light.occluderStack;
+		final float[] stackEntry = light.occluderStackEntry;
+		final float dx = endX - startX;
+		final float dy = endY - startY;
+		// zero direction gives infinities that are handled by entry()
+		final float invDx = 1f / dx;
+		final float invDy = 1f / dy;
+		final Filter filter = light.activeFilter();
+		if (filtered(filter, 0)) return maxFraction;
+
+		float e = entry(0, startX, startY, invDx, invDy, maxFraction);
+		if (e > maxFraction) return maxFraction;
+
+		int top = 0;
+		stack[top] = 0;
+		stackEntry[top++] = e;
+		while (top > 0) {
+			final int n = stack[--top];
+			if (stackEntry[top] > maxFraction) continue;
+
+			final int c = child[n];
+			if (c < 0) {
+				for (int k = start[n], end = k + count[n]; k < end; k++) {
+					final int i = order[k];
+					if (!light.acceptOccluder(occluders, i)) continue;
+					final float t = occluders.intersect(
+							i, startX, startY, dx, dy, maxFraction);
+					if (t < maxFraction) {
+						maxFraction = t;
+						light.hitFixture = occluders.fixture[i];
+						light.hitOccluders = occluders;
+						light.hitPrimitive = i;
+					}
+				}
+			} else {
+				// visit the child closer to the ray start first
+				final float e0 = filtered(filter, c) ? Float.POSITIVE_INFINITY :
+						entry(c, startX, startY, invDx, invDy, maxFraction);
+				final float e1 = filtered(filter, c + 1) ? Float.POSITIVE_INFINITY :
+						entry(c + 1, startX, startY, invDx, invDy, maxFraction);
+				final int near = e0 <= e1 ? c : c + 1;
+				final float nearEntry = e0 <= e1 ? e0 : e1;
+				final float farEntry = e0 <= e1 ? e1 : e0;
+				if (farEntry <= maxFraction) {
+					stack[top] = (near == c) ? c + 1 : c;
+					stackEntry[top++] = farEntry;
+				}
+				if (nearEntry <= maxFraction) {
+					stack[top] = near;
+					stackEntry[top++] = nearEntry;
+				}
+			}
+		}
+		return maxFraction;
+	}
+
+	/**
+	 * Copies all primitives whose bounds overlap given rectangle to target
+	 */
+	public void query(Light light, float x1, float y1, float x2, float y2,
+			Occluders target) {
+		if (nodeCount == 0) return;
+		
+		final int[] stack = light.occluderStack;
+		final Filter filter = light.activeFilter();
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			final int n = stack[--top];
+			if (minX[n] > x2 || maxX[n] < x1 || minY[n] > y2 || maxY[n] < y1 ||
+				filtered(filter, n))
+				continue;
+			
+			final int c = child[n];
+			if (c < 0) {
+				for (int k = start[n], end = k + count[n]; k < end; k++) {
+					final int i = order[k];
+					if (occluders.minX(i) > x2 || occluders.maxX(i) < x1 ||
+						occluders.minY(i) > y2 || occluders.maxY(i) < y1)
+						continue;
+					target.add(occluders, i);
+				}
+			} else {
+				stack[top++] = c + 1;
+				stack[top++] = c;
+			}
+		}
+	}
+
+	/**
+	 * Conservative test against node filter unions, positive light group
+	 * can accept any category so such lights never skip nodes
+	 *
+	 * @return if no primitive under node n passes given light filter
+	 */
+	private boolean filtered(Filter filter, int n) {
+		return filter != null && filter.groupIndex <= 0 &&
+				((filter.maskBits & categories[n]) == 0 ||
+				(filter.categoryBits & masks[n]) == 0);
+	}
+
+	/**
+	 * Slab test of ray against node bounds
+	 *
+	 * @return fraction at which ray enters node bounds, or positive infinity
+	 *         if it misses them before maxFraction
+	 */
+	private float entry(int n, float px, float py, float invDx, float invDy,
+			float maxFraction) {
+		float tMin = 0f;
+		float tMax = maxFraction;
+		if (invDx != Float.POSITIVE_INFINITY && invDx != Float.NEGATIVE_INFINITY) {
+			final float t1 = (minX[n] - px) * invDx;
+			final float t2 = (maxX[n] - px) * invDx;
+			if (t1 < t2) {
+				if (t1 > tMin) tMin = t1;
+				if (t2 < tMax) tMax = t2;
+			} else {
+				if (t2 > tMin) tMin = t2;
+				if (t1 < tMax) tMax = t1;
+			}
+		} else if (px < minX[n] || px > maxX[n]) {
+			return Float.POSITIVE_INFINITY;
+		}
+		if (invDy != Float.POSITIVE_INFINITY && invDy != Float.NEGATIVE_INFINITY) {
+			final float t1 = (minY[n] - py) * invDy;
+			final float t2 = (maxY[n] - py) * invDy;
+			if (t1 < t2) {
+				if (t1 > tMin) tMin = t1;
+				if (t2 < tMax) tMax = t2;
+			} else {
+				if (t2 > tMin) tMin = t2;
+				if (t1 < tMax) tMax = t1;
+			}
+		} else if (py < minY[n] || py > maxY[n]) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return tMin <= tMax ? tMin : Float.POSITIVE_INFINITY;
+	}
+
+	private void buildNode(int n, int from, int to) {
+		float cMinX = Float.POSITIVE_INFINITY;
+		float cMinY = Float.POSITIVE_INFINITY;
+		float cMaxX = Float.NEGATIVE_INFINITY;
+		float cMaxY = Float.NEGATIVE_INFINITY;
+		for (int k = from; k < to; k++) {
+			final int i = order[k];
+			final float cx = centers[i * 2];
+			final float cy = centers[i * 2 + 1];
+			if (cx < cMinX) cMinX = cx;
+			if (cx > cMaxX) cMaxX = cx;
+			if (cy < cMinY) cMinY = cy;
+			if (cy > cMaxY) cMaxY = cy;
+		}
+
+		if (to - from <= LEAF_SIZE ||
+			(cMaxX - cMinX <= 0f && cMaxY - cMinY <= 0f)) {
+			child[n] = -1;
+			start[n] = from;
+			count[n] = to - from;
+			fitLeaf(n);
+			short leafCategories = 0;
+			short leafMasks = 0;
+			for (int k = from; k < to; k++) {
+				leafCategories |= occluders.categoryBits[order[k]];
+				leafMasks |= occluders.maskBits[order[k]];
+			}
+			categories[n] = leafCategories;
+			masks[n] = leafMasks;
+			return;
+		}
+
+		final int axis = (cMaxX - cMinX) >= (cMaxY - cMinY) ? 0 : 1;
+		final int mid = (from + to) >>> 1;
+		select(from, to - 1, mid, axis);
+
+		final int c = newNode();
+		newNode();
+		child[n] = c;
+		count[n] = 0;
+		buildNode(c, from, mid);
+		buildNode(c + 1, mid, to);
+
+		minX[n] = Math.min(minX[c], minX[c + 1]);
+		minY[n] = Math.min(minY[c], minY[c + 1]);
+		maxX[n] = Math.max(maxX[c], maxX[c + 1]);
+		maxY[n] = Math.max(maxY[c], maxY[c + 1]);
+		categories[n] = (short)(categories[c] | categories[c + 1]);
+		masks[n] = (short)(masks[c] | masks[c + 1]);
+	}
+
+	private void fitLeaf(int n) {
+		float x1 = Float.POSITIVE_INFINITY;
+		float y1 = Float.POSITIVE_INFINITY;
+		float x2 = Float.NEGATIVE_INFINITY;
+		float y2 = Float.NEGATIVE_INFINITY;
+		for (int k = start[n], end = k + count[n]; k < end; k++) {
+			final int i = order[k];
+			x1 = Math.min(x1, occluders.minX(i));
+			y1 = Math.min(y1, occluders.minY(i));
+			x2 = Math.max(x2, occluders.maxX(i));
+			y2 = Math.max(y2, occluders.maxY(i));
+		}
+		minX[n] = x1;
+		minY[n] = y1;
+		maxX[n] = x2;
+		maxY[n] = y2;
+	}
+
+	/** Quickselect, puts k-th smallest center along axis to position k **/
+	private void select(int left, int right, int k, int axis) {
+		final int[] order = this.order;
+		final float[] centers = this.centers;
+		while (right > left) {
+			final float pivot = centers[order[(left + right) >>> 1] * 2 + axis];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (centers[order[i] * 2 + axis] < pivot) i++;
+				while (centers[order[j] * 2 + axis] > pivot) j--;
+				if (i <= j) {
+					final int tmp = order[i];
+					order[i] = order[j];
+					order[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private int newNode() {
+		if (nodeCount == child.length) {
+			final int capacity = nodeCount * 2;
+			minX = Occluders.copyOf(minX, capacity);
+			minY = Occluders.copyOf(minY, capacity);
+			maxX = Occluders.copyOf(maxX, capacity);
+			maxY = Occluders.copyOf(maxY, capacity);
+			child = Occluders.copyOf(child, capacity);
+			start = Occluders.copyOf(start, capacity);
+			count = Occluders.copyOf(count, capacity);
+			categories = Occluders.copyOf(categories, capacity);
+			masks = Occluders.copyOf(masks, capacity);
+		}
+		return nodeCount++;
+	}
+
+}
@@ -0,0 +1,480 @@
+package box2dLight;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.ChainShape;
+import com.badlogic.gdx.physics.box2d.CircleShape;
+import com.badlogic.gdx.physics.box2d.EdgeShape;
+import com.badlogic.gdx.physics.box2d.Filter;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.Shape;
+import com.badlogic.gdx.physics.box2d.Transform;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+
+/**
+ * Java side copy of fixture geometry used for raycasting without Box2D
+ *
+ * <p>Every fixture is decomposed into primitives: polygon edges, edge and
+ * chain segments, and circles. Primitives are stored as structure of arrays
+ * both in body local and in world coordinates, so moving bodies only need
+ * their transform re-applied.
+ *
+ * <p>Intersection tests replicate the Box2D shape raycasts: polygons and
+ * circles can only be hit from outside, edges and chains from both sides.
+ */
+public class Occluders {
+
+	/** Polygon edge, hit only when the ray enters the polygon **/
+	static final byte POLYGON_EDGE = 0;
+	/** Edge or chain segment, hit from both sides **/
+	static final byte SEGMENT = 1;
+	/** Circle, stored as center in (x1, y1) and radius in x2 **/
+	static final byte CIRCLE = 2;
+
+	/** Number of stored primitives **/
+	int size;
+
+	byte[] type = new byte[16];
+	float[] x1 = new float[16];
+	float[] y1 = new float[16];
+	float[] x2 = new float[16];
+	float[] y2 = new float[16];
+
+	float[] localX1 = new float[16];
+	float[] localY1 = new float[16];
+	float[] localX2 = new float[16];
+	float[] localY2 = new float[16];
+
+	Fixture[] fixture = new Fixture[16];
+	short[] categoryBits = new short[16];
+	short[] maskBits = new short[16];
+	short[] groupIndex = new short[16];
+
+	/** Bodies whose fixtures are stored, primitives of a body are contiguous **/
+	int bodyCount;
+	Body[] bodies = new Body[4];
+	int[] bodyStart = new int[4];
+	float[] bodyTransform = new float[16];
+
+	private final Vector2 tmpVec = new Vector2();
+
+	/**
+	 * Removes all primitives
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			fixture[i] = null;
+		}
+		for (int i = 0; i < bodyCount; i++) {
+			bodies[i] = null;
+		}
+		size = 0;
+		bodyCount = 0;
+	}
+
+	/**
+	 * @return number of stored primitives
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds all fixtures of given body in its current transform
+	 */
+	public void add(Body body) {
+		for (Fixture fixture : body.getFixtureList()) {
+			add(fixture);
+		}
+	}
+
+	/**
+	 * Adds the fixture primitives in its body current transform
+	 */
+	public void add(Fixture fixture) {
+		final Body body = fixture.getBody();
+		if (bodyCount == 0 || bodies[bodyCount - 1] != body) {
+			startBody(body);
+		}
+		final int first = size;
+		final Shape shape = fixture.getShape();
+		switch (shape.getType()) {
+		case Polygon: {
+			final PolygonShape polygon = (PolygonShape)shape;
+			final int count = polygon.getVertexCount();
+			polygon.getVertex(count - 1, tmpVec);
+			float px = tmpVec.x;
+			float py = tmpVec.y;
+			for (int i = 0; i < count; i++) {
+				polygon.getVertex(i, tmpVec);
+				addLocal(POLYGON_EDGE, px, py, tmpVec.x, tmpVec.y);
+				px = tmpVec.x;
+				py = tmpVec.y;
+			}
+			break;
+		}
+		case Edge: {
+			final EdgeShape edge = (EdgeShape)shape;
+			edge.getVertex1(tmpVec);
+			final float px = tmpVec.x;
+			final float py = tmpVec.y;
+			edge.getVertex2(tmpVec);
+			addLocal(SEGMENT, px, py, tmpVec.x, tmpVec.y);
+			break;
+		}
+		case Chain: {
+			final ChainShape chain = (ChainShape)shape;
+			final int count = chain.getVertexCount();
+			chain.getVertex(0, tmpVec);
+			float px = tmpVec.x;
+			float py = tmpVec.y;
+			for (int i = 1; i < count; i++) {
+				chain.getVertex(i, tmpVec);
+				addLocal(SEGMENT, px, py, tmpVec.x, tmpVec.y);
+				px = tmpVec.x;
+				py = tmpVec.y;
+			}
+			break;
+		}
+		case Circle: {
+			final CircleShape circle = (CircleShape)shape;
+			final Vector2 position = circle.getPosition();
+			addLocal(CIRCLE, position.x, position.y, circle.getRadius(), 0f);
+			break;
+		}
+		}
+
+		final Filter filter = fixture.getFilterData();
+		for (int i = first; i < size; i++) {
+			this.fixture[i] = fixture;
+			categoryBits[i] = filter.categoryBits;
+			maskBits[i] = filter.maskBits;
+			groupIndex[i] = filter.groupIndex;
+		}
+		transform(bodyCount - 1);
+	}
+
+	/**
+	 * Adds copy of primitive number i from other occluders
+	 * 
+	 * <p>Copied primitive keeps its world position and doesn't follow
+	 * its body on {@link #updateTransforms()}
+	 */
+	public void add(Occluders source, int i) {
+		if (size == type.length) grow();
+		type[size] = source.type[i];
+		x1[size] = source.x1[i];
+		y1[size] = source.y1[i];
+		x2[size] = source.x2[i];
+		y2[size] = source.y2[i];
+		localX1[size] = source.localX1[i];
+		localY1[size] = source.localY1[i];
+		localX2[size] = source.localX2[i];
+		localY2[size] = source.localY2[i];
+		fixture[size] = source.fixture[i];
+		categoryBits[size] = source.categoryBits[i];
+		maskBits[size] = source.maskBits[i];
+		groupIndex[size] = source.groupIndex[i];
+		size++;
+	}
+
+	/**
+	 * Adds polygon edge in world coordinates which doesn't belong to any
+	 * fixture, it is hit only from its right side and passes default filter
+	 */
+	void addEdge(float ax, float ay, float bx, float by) {
+		if (size == type.length) grow();
+		type[size] = POLYGON_EDGE;
+		x1[size] = localX1[size] = ax;
+		y1[size] = localY1[size] = ay;
+		x2[size] = localX2[size] = bx;
+		y2[size] = localY2[size] = by;
+		fixture[size] = null;
+		categoryBits[size] = 0x0001;
+		maskBits[size] = -1;
+		groupIndex[size] = 0;
+		size++;
+	}
+
+	/**
+	 * Re-applies body transforms to world coordinates of primitives
+	 *
+	 * @return true if any of the bodies has moved since last call
+	 */
+	public boolean updateTransforms() {
+		return updateTransforms(null);
+	}
+
+	/**
+	 * Re-applies body transforms to world coordinates of primitives
+	 *
+	 * @param changed
+	 *            if not {@code null}, receives bounds of every moved body
+	 *            covering both its old and new position, as minX, minY,
+	 *            maxX and maxY
+	 * @return true if any of the bodies has moved since last call
+	 */
+	public boolean updateTransforms(FloatArray changed) {
+		return updateTransforms(changed, null);
+	}
+
+	/**
+	 * Re-applies body transforms to world coordinates of primitives
+	 *
+	 * @param movedBodies
+	 *            if not {@code null}, receives every moved body in the same
+	 *            order as their bounds are added to changed
+	 */
+	boolean updateTransforms(FloatArray changed, Array<Body> movedBodies) {
+		boolean moved = false;
+		for (int b = 0; b < bodyCount; b++) {
+			final float[] vals = bodies[b].getTransform().vals;
+			final int t = b * 4;
+			if (bodyTransform[t] != vals[Transform.POS_X] ||
+				bodyTransform[t + 1] != vals[Transform.POS_Y] ||
+				bodyTransform[t + 2] != vals[Transform.COS] ||
+				bodyTransform[t + 3] != vals[Transform.SIN]) {
+				if (changed != null) {
+					final int k = changed.size;
+					changed.add(Float.POSITIVE_INFINITY);
+					changed.add(Float.POSITIVE_INFINITY);
+					changed.add(Float.NEGATIVE_INFINITY);
+					changed.add(Float.NEGATIVE_INFINITY);
+					includeBody(b, changed.items, k);
+					transform(b);
+					includeBody(b, changed.items, k);
+					if (movedBodies != null) movedBodies.add(bodies[b]);
+				} else {
+					transform(b);
+				}
+				moved = true;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Casts ray against all primitives
+	 * 
+	 * <p>Closest hit is stored in {@link Light#hitFixture},
+	 * {@link Light#hitOccluders} and {@link Light#hitPrimitive}
+	 * 
+	 * @return fraction of the closest hit accepted by light, or maxFraction
+	 *         if nothing was hit before it
+	 */
+	public float rayCast(Light light, float startX, float startY,
+			float endX, float endY, float maxFraction) {
+		for (int i = 0; i < size; i++) {
+			if (!light.acceptOccluder(this, i)) continue;
+			final float t = intersect(i, startX, startY,
+					endX - startX, endY - startY, maxFraction);
+			if (t < maxFraction) {
+				maxFraction = t;
+				light.hitFixture = fixture[i];
+				light.hitOccluders = this;
+				light.hitPrimitive = i;
+			}
+		}
+		return maxFraction;
+	}
+
+	/**
+	 * Casts fan of rays from common start point against all primitives
+	 * 
+	 * <p>Ray i ends at (startX + offsetX[i], startY + offsetY[i]), its
+	 * closest hit fraction is written to fraction[i] which must be
+	 * initialized with maximal fractions
+	 */
+	public void rayCast(Light light, float startX, float startY,
+			float[] offsetX, float[] offsetY, float[] fraction, int count) {
+		final IntersectionKernel kernel = IntersectionKernel.instance;
+		for (int i = 0; i < size; i++) {
+			if (!light.acceptOccluder(this, i)) continue;
+			if (type[i] == CIRCLE) {
+				kernel.circle(startX, startY, offsetX, offsetY,
+						fraction, 0, count, x1[i], y1[i], x2[i]);
+			} else {
+				kernel.segment(startX, startY, offsetX, offsetY,
+						fraction, 0, count, x1[i], y1[i], x2[i], y2[i],
+						type[i] == POLYGON_EDGE);
+			}
+		}
+	}
+
+	/**
+	 * Intersects ray with single primitive
+	 *
+	 * @return hit fraction if primitive is hit before maxFraction,
+	 *         maxFraction otherwise
+	 */
+	final float intersect(int i, float px, float py, float dx, float dy,
+			float maxFraction) {
+		if (type[i] == CIRCLE) {
+			final float r = x2[i];
+			final float sx = px - x1[i];
+			final float sy = py - y1[i];
+			final float b = sx * sx + sy * sy - r * r;
+			final float c = sx * dx + sy * dy;
+			final float rr = dx * dx + dy * dy;
+			final float sigma = c * c - rr * b;
+			if (sigma < 0f || rr < 1.1920929E-7f) return maxFraction;
+			final float a = -(c + (float)Math.sqrt(sigma));
+			if (0f <= a && a <= maxFraction * rr) return a / rr;
+			return maxFraction;
+		}
+
+		final float ax = x1[i];
+		final float ay = y1[i];
+		final float ex = x2[i] - ax;
+		final float ey = y2[i] - ay;
+		// edge normal, outward for counter clockwise polygons
+		final float denominator = ey * dx - ex * dy;
+		if (denominator == 0f) return maxFraction;
+		if (type[i] == POLYGON_EDGE && denominator > 0f) return maxFraction;
+
+		final float t = (ey * (ax - px) - ex * (ay - py)) / denominator;
+		if (t < 0f || t > maxFraction) return maxFraction;
+
+		final float rr = ex * ex + ey * ey;
+		if (rr == 0f) return maxFraction;
+		final float s = ((px + t * dx - ax) * ex + (py + t * dy - ay) * ey) / rr;
+		if (s < 0f || s > 1f) return maxFraction;
+
+		return t;
+	}
+
+	/** @return minimal horizontal extent of primitive **/
+	final float minX(int i) {
+		if (type[i] == CIRCLE) return x1[i] - x2[i];
+		return x1[i] < x2[i] ? x1[i] : x2[i];
+	}
+
+	/** @return minimal vertical extent of primitive **/
+	final float minY(int i) {
+		if (type[i] == CIRCLE) return y1[i] - x2[i];
+		return y1[i] < y2[i] ? y1[i] : y2[i];
+	}
+
+	/** @return maximal horizontal extent of primitive **/
+	final float maxX(int i) {
+		if (type[i] == CIRCLE) return x1[i] + x2[i];
+		return x1[i] > x2[i] ? x1[i] : x2[i];
+	}
+
+	/** @return maximal vertical extent of primitive **/
+	final float maxY(int i) {
+		if (type[i] == CIRCLE) return y1[i] + x2[i];
+		return y1[i] > y2[i] ? y1[i] : y2[i];
+	}
+
+	private void startBody(Body body) {
+		if (bodyCount == bodies.length) {
+			final int capacity = bodyCount * 2;
+			final Body[] newBodies = new Body[capacity];
+			System.arraycopy(bodies, 0, newBodies, 0, bodyCount);
+			bodies = newBodies;
+			bodyStart = copyOf(bodyStart, capacity);
+			bodyTransform = copyOf(bodyTransform, capacity * 4);
+		}
+		bodies[bodyCount] = body;
+		bodyStart[bodyCount] = size;
+		bodyCount++;
+	}
+
+	/** Grows bounds stored at offset to include primitives of body b **/
+	private void includeBody(int b, float[] bounds, int offset) {
+		final int end = (b + 1 < bodyCount) ? bodyStart[b + 1] : size;
+		for (int i = bodyStart[b]; i < end; i++) {
+			bounds[offset] = Math.min(bounds[offset], minX(i));
+			bounds[offset + 1] = Math.min(bounds[offset + 1], minY(i));
+			bounds[offset + 2] = Math.max(bounds[offset + 2], maxX(i));
+			bounds[offset + 3] = Math.max(bounds[offset + 3], maxY(i));
+		}
+	}
+
+	/** Applies stored transform of body number b to its primitives **/
+	private void transform(int b) {
+		final float[] vals = bodies[b].getTransform().vals;
+		final float px = vals[Transform.POS_X];
+		final float py = vals[Transform.POS_Y];
+		final float c = vals[Transform.COS];
+		final float s = vals[Transform.SIN];
+		final int t = b * 4;
+		bodyTransform[t] = px;
+		bodyTransform[t + 1] = py;
+		bodyTransform[t + 2] = c;
+		bodyTransform[t + 3] = s;
+
+		final int end = (b + 1 < bodyCount) ? bodyStart[b + 1] : size;
+		for (int i = bodyStart[b]; i < end; i++) {
+			x1[i] = c * localX1[i] - s * localY1[i] + px;
+			y1[i] = s * localX1[i] + c * localY1[i] + py;
+			if (type[i] == CIRCLE) {
+				x2[i] = localX2[i];
+				y2[i] = 0f;
+			} else {
+				x2[i] = c * localX2[i] - s * localY2[i] + px;
+				y2[i] = s * localX2[i] + c * localY2[i] + py;
+			}
+		}
+	}
+
+	private void addLocal(byte primitiveType, float ax, float ay,
+			float bx, float by) {
+		if (size == type.length) grow();
+		type[size] = primitiveType;
+		localX1[size] = ax;
+		localY1[size] = ay;
+		localX2[size] = bx;
+		localY2[size] = by;
+		size++;
+	}
+
+	private void grow() {
+		final int capacity = size * 2;
+		final byte[] newType = new byte[capacity];
+		System.arraycopy(type, 0, newType, 0, size);
+		type = newType;
+		x1 = copyOf(x1, capacity);
+		y1 = copyOf(y1, capacity);
+		x2 = copyOf(x2, capacity);
+		y2 = copyOf(y2, capacity);
+		localX1 = copyOf(localX1, capacity);
+		localY1 = copyOf(localY1, capacity);
+		localX2 = copyOf(localX2, capacity);
+		localY2 = copyOf(localY2, capacity);
+		final Fixture[] newFixture = new Fixture[capacity];
+		System.arraycopy(fixture, 0, newFixture, 0, size);
+		fixture = newFixture;
+		categoryBits = copyOf(categoryBits, capacity);
+		maskBits = copyOf(maskBits, capacity);
+		groupIndex = copyOf(groupIndex, capacity);
+	}
+
+	static float[] copyOf(float[] array, int capacity) {
+		final float[] copy = new float[capacity];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, capacity));
+		return copy;
+	}
+
+	static int[] copyOf(int[] array, int capacity) {
+		final int[] copy = new int[capacity];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, capacity));
+		return copy;
+	}
+
+	static short[] copyOf(short[] array, int capacity) {
+		final short[] copy = new short[capacity];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, capacity));
+		return copy;
+	}
+
+	static boolean[] copyOf(boolean[] array, int capacity) {
+		final boolean[] copy = new boolean[capacity];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, capacity));
+		return copy;
+	}
+
+}
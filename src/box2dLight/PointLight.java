@@ -68,7 +68,7 @@ public class PointLight extends PositionalLight {
 		if (dirty) setEndPoints();
 		
 		if (cull()) return;
-		if (staticLight && !dirty) return;
+		if ((staticLight || motionAware) && !dirty) return;
 		
 		dirty = false;
 		updateMesh();
@@ -278,6 +278,7 @@ public class PointLight extends PositionalLight {
 	 */
 	@Override
 	public void setDistance(float dist) {
+		waitForUpdate();
 		dist *= RayHandler.gammaCorrectionParameter;
 		this.distance = dist < 0.01f ? 0.01f : dist;
 		dirty = true;
@@ -285,14 +286,7 @@ public class PointLight extends PositionalLight {
 	
 	/** Updates light basing on it's distance and rayNum **/
 	void setEndPoints() {
-		float angleNum = 360f / (rayNum - 1);
-		for (int i = 0; i < rayNum; i++) {
-			final float angle = angleNum * i;
-			sin[i] = MathUtils.sinDeg(angle);
-			cos[i] = MathUtils.cosDeg(angle);
-			endX[i] = distance * cos[i];
-			endY[i] = distance * sin[i];
-		}
+		setEndPoints(0f, 360f);
 	}
 	
 	/** Not applicable for this light type **/
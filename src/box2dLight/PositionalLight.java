@@ -10,7 +10,9 @@ import com.badlogic.gdx.graphics.VertexAttributes.Usage;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.Filter;
 import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.QueryCallback;
 
 /**
  * Abstract base class for all positional lights
@@ -29,10 +31,50 @@ public abstract class PositionalLight extends Light {
 	
 	protected float sin[];
 	protected float cos[];
+	/** Shared table sin and cos come from, null if they are own arrays **/
+	DirectionTable directions;
+	/** Arc of evenly spaced rays set by last setEndPoints call **/
+	float rayArcStart;
+	float rayArcAngle;
 
 	protected float endX[];
 	protected float endY[];
 	
+	/** Batched raycasting variables **/
+	protected boolean batched = false;
+	protected final Occluders nearOccluders = new Occluders();
+	
+	/** Group sharing ray casts, null if not grouped **/
+	LightGroup group;
+	/** Set if ray directions were last taken from the group **/
+	boolean sharedDirections = false;
+	
+	/** Angular occupancy culling variables **/
+	protected boolean occupancyCulling = false;
+	
+	/** Exact visibility polygon variables **/
+	protected boolean visibilityPolygon = false;
+	VisibilitySweep visibilitySweep;
+	
+	/** Incremental sweep variables **/
+	protected boolean incrementalSweep = false;
+	protected float sweepMargin = 1f;
+	boolean sweepCached = false;
+	float sweepX;
+	float sweepY;
+	float sweepDistance;
+	float sweepStart;
+	float sweepSpan;
+	int sweepFilterVersion;
+	int sweepIndexUpdate;
+	
+	/** Adaptive ray refinement variables **/
+	protected boolean adaptive = false;
+	protected int minRayNum = 16;
+	protected float refineTolerance = 0.1f;
+	float[] rayAngle;
+	Fixture[] rayFixture;
+	
 	/** 
 	 * Creates new positional light and automatically adds it to the specified
 	 * {@link RayHandler} instance.
@@ -58,13 +100,21 @@ public abstract class PositionalLight extends Light {
 		start.x = x;
 		start.y = y;
 
-		lightMesh = new Mesh(VertexDataType.VertexArray, false, vertexNum, 0, new VertexAttribute(Usage.Position, 2,
+		createMeshes(vertexNum);
+		setMesh();
+	}
+	
+	/**
+	 * Creates light and soft shadow meshes for given maximal number of
+	 * vertices including the light center
+	 */
+	protected void createMeshes(int maxVertices) {
+		lightMesh = new Mesh(VertexDataType.VertexArray, false, maxVertices, 0, new VertexAttribute(Usage.Position, 2,
 			"vertex_positions"), new VertexAttribute(Usage.ColorPacked, 4, "quad_colors"),
 			new VertexAttribute(Usage.Generic, 1, "s"));
-		softShadowMesh = new Mesh(VertexDataType.VertexArray, false, vertexNum * 2, 0, new VertexAttribute(Usage.Position, 2,
+		softShadowMesh = new Mesh(VertexDataType.VertexArray, false, maxVertices * 2, 0, new VertexAttribute(Usage.Position, 2,
 			"vertex_positions"), new VertexAttribute(Usage.ColorPacked, 4, "quad_colors"),
 			new VertexAttribute(Usage.Generic, 1, "s"));
-		setMesh();
 	}
 	
 	@Override
@@ -72,7 +122,7 @@ public abstract class PositionalLight extends Light {
 		updateBody();
 		
 		if (cull()) return;
-		if (staticLight && !dirty) return;
+		if ((staticLight || motionAware) && !dirty) return;
 		
 		dirty = false;
 		
@@ -133,11 +183,12 @@ public abstract class PositionalLight extends Light {
 	 *            directional relative offset in degrees 
 	 */
 	public void attachToBody(Body body, float offsetX, float offSetY, float degrees) {
+		waitForUpdate();
 		this.body = body;
 		bodyOffsetX = offsetX;
 		bodyOffsetY = offSetY;
 		bodyAngleOffset = degrees;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 
 	@Override
@@ -165,16 +216,18 @@ public abstract class PositionalLight extends Light {
 
 	@Override
 	public void setPosition(float x, float y) {
+		waitForUpdate();
 		start.x = x;
 		start.y = y;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 
 	@Override
 	public void setPosition(Vector2 position) {
+		waitForUpdate();
 		start.x = position.x;
 		start.y = position.y;
-		if (staticLight) dirty = true;
+		if (staticLight || motionAware) dirty = true;
 	}
 
 	@Override
@@ -186,11 +239,12 @@ public abstract class PositionalLight extends Light {
 		if (distance * distance <= dst2) return false;
 
 		// actual check
+		final int rays = vertexNum - 1;
 		boolean oddNodes = false;
-		float x2 = mx[rayNum] = start.x;
-		float y2 = my[rayNum] = start.y;
+		float x2 = mx[rays] = start.x;
+		float y2 = my[rays] = start.y;
 		float x1, y1;
-		for (int i = 0; i <= rayNum; x2 = x1, y2 = y1, ++i) {
+		for (int i = 0; i <= rays; x2 = x1, y2 = y1, ++i) {
 			x1 = mx[i];
 			y1 = my[i];
 			if (((y1 < y) && (y2 >= y)) || (y1 >= y) && (y2 < y)) {
@@ -200,24 +254,112 @@ public abstract class PositionalLight extends Light {
 		return oddNodes;
 	}
 	
+	@Override
+	public void dispose() {
+		super.dispose();
+		if (group != null) group.remove(this);
+		if (directions != null) {
+			DirectionTable.release(directions);
+			directions = null;
+		}
+	}
+	
 	@Override
 	protected void setRayNum(int rays) {
 		super.setRayNum(rays);
 		
+		if (directions != null) {
+			DirectionTable.release(directions);
+			directions = null;
+		}
 		sin = new float[rays];
 		cos = new float[rays];
 		endX = new float[rays];
 		endY = new float[rays];
 	}
 	
+	/**
+	 * Grows vertex arrays and meshes if needed, so that the light can be
+	 * built from given number of rays
+	 * 
+	 * <p>Used by modes in which the number of light vertices isn't fixed
+	 */
+	protected void ensureRayCapacity(int rays) {
+		ownDirections();
+		if (rays <= cos.length) return;
+		
+		final int capacity = Math.max(rays, cos.length + cos.length / 2);
+		sin = Occluders.copyOf(sin, capacity);
+		cos = Occluders.copyOf(cos, capacity);
+		mx = new float[capacity + 1];
+		my = new float[capacity + 1];
+		f = new float[capacity + 1];
+		segments = new float[(capacity + 1) * 8];
+		
+		lightMesh.dispose();
+		softShadowMesh.dispose();
+		createMeshes(capacity + 1);
+	}
+	
+	/**
+	 * Sets {@link #rayNum} ray directions spaced evenly over given arc and
+	 * end points at light distance along them
+	 * 
+	 * <p>Directions are shared with all lights using the same arc and
+	 * number of rays, so only end points are calculated unless the arc
+	 * changes. Lights in modes that set own ray directions keep own arrays.
+	 * 
+	 * @param arcStart
+	 *            direction of the first ray in degrees
+	 * @param arcAngle
+	 *            angle between the first and the last ray in degrees,
+	 *            negative for clockwise arc
+	 */
+	protected void setEndPoints(float arcStart, float arcAngle) {
+		rayArcStart = arcStart;
+		rayArcAngle = arcAngle;
+		if (directions == null &&
+			(adaptive || visibilityPolygon || group != null)) {
+			for (int i = 0; i < rayNum; i++) {
+				final float angle = arcStart + arcAngle * i / (rayNum - 1f);
+				sin[i] = MathUtils.sinDeg(angle);
+				cos[i] = MathUtils.cosDeg(angle);
+			}
+		} else if (directions == null ||
+				!directions.matches(rayNum, arcStart, arcAngle)) {
+			directions = DirectionTable.acquire(
+					directions, rayNum, arcStart, arcAngle);
+			sin = directions.sin;
+			cos = directions.cos;
+		}
+		for (int i = 0; i < rayNum; i++) {
+			endX[i] = distance * cos[i];
+			endY[i] = distance * sin[i];
+		}
+	}
+	
+	/**
+	 * Replaces shared direction table with own copy, called before ray
+	 * directions are changed
+	 */
+	void ownDirections() {
+		if (directions == null) return;
+		
+		sin = Occluders.copyOf(sin, sin.length);
+		cos = Occluders.copyOf(cos, cos.length);
+		DirectionTable.release(directions);
+		directions = null;
+	}
+	
 	protected boolean cull() {
 		culled = rayHandler.culling && !rayHandler.intersect(
 					start.x, start.y, distance + softShadowLength);
 		return culled;
 	}
 	
+	@Override
 	protected void updateBody() {
-		if (body == null || staticLight) return;
+		if (body == null || staticLight || rayHandler.bodiesCaptured) return;
 		
 		final Vector2 vec = body.getPosition();
 		float angle = body.getAngle();
@@ -225,26 +367,478 @@ public abstract class PositionalLight extends Light {
 		final float sin = MathUtils.sin(angle);
 		final float dX = bodyOffsetX * cos - bodyOffsetY * sin;
 		final float dY = bodyOffsetX * sin + bodyOffsetY * cos;
-		start.x = vec.x + dX;
-		start.y = vec.y + dY;
-		setDirection(bodyAngleOffset + angle * MathUtils.radiansToDegrees);
+		final float x = vec.x + dX;
+		final float y = vec.y + dY;
+		if (motionAware && (x != start.x || y != start.y)) dirty = true;
+		start.x = x;
+		start.y = y;
+		
+		final float degrees = bodyAngleOffset + angle * MathUtils.radiansToDegrees;
+		if (degrees != direction) setDirection(degrees);
+	}
+	
+	@Override
+	boolean needsOccluderIndex() {
+		return incrementalSweep || super.needsOccluderIndex();
+	}
+	
+	@Override
+	boolean affectedByMotion(OccluderIndex index) {
+		if (index.changedAll) return true;
+		
+		final float[] bounds = index.changedBounds.items;
+		for (int i = 0, n = index.changedBounds.size; i < n; i += 4) {
+			if (bounds[i] <= start.x + distance &&
+				bounds[i + 1] <= start.y + distance &&
+				bounds[i + 2] >= start.x - distance &&
+				bounds[i + 3] >= start.y - distance)
+				return true;
+		}
+		return false;
 	}
 	
 	protected void updateMesh() {
+		vertexNum = rayNum + 1;
+		if (!rayHandler.pseudo3d && rayHandler.world != null && !xray) {
+			if (visibilityPolygon) {
+				updateMeshVisibility();
+				return;
+			}
+			if (adaptive) {
+				refineRays(getArcStart(), getArcAngle());
+				return;
+			}
+			if (group != null && group.cast(this)) {
+				updateMeshGrouped();
+				return;
+			}
+			if (sharedDirections) restoreDirections();
+			if (batched) {
+				updateMeshBatched();
+				return;
+			}
+		}
+		if (sharedDirections) restoreDirections();
+		final boolean cast =
+				!rayHandler.pseudo3d && rayHandler.world != null && !xray;
+		final boolean culling = cast && occupancyCulling &&
+				markOccupiedRays();
 		for (int i = 0; i < rayNum; i++) {
 			m_index = i;
+			final boolean occupied = !culling || f[i] != f[i];
 			f[i] = 1f;
 			tmpEnd.x = endX[i] + start.x;
 			mx[i] = tmpEnd.x;
 			tmpEnd.y = endY[i] + start.y;
 			my[i] = tmpEnd.y;
-			if (!rayHandler.pseudo3d && rayHandler.world != null && !xray) {
-				rayHandler.world.rayCast(ray, start, tmpEnd);
+			if (cast && occupied) {
+				castRay(start, tmpEnd);
+			}
+		}
+		setMesh();
+	}
+	
+	/**
+	 * Builds light from rays shared by its group, clamped to light distance
+	 * and arc, arcs narrower than full circle cast own rays along their
+	 * edges
+	 */
+	protected void updateMeshGrouped() {
+		final PointLight shared = group.caster;
+		final int sharedRays = shared.rayNum;
+		final float scale = shared.distance / distance;
+		final float arcStart = getArcStart();
+		final float arcAngle = getArcAngle();
+		sharedDirections = true;
+		
+		if (arcAngle >= 360f) {
+			ensureRayCapacity(sharedRays);
+			for (int i = 0; i < sharedRays; i++) {
+				setSharedRay(i, shared, i, scale);
+			}
+			vertexNum = sharedRays + 1;
+			setMesh();
+			return;
+		}
+		
+		// shared rays strictly inside of the arc, between two edge rays
+		final int steps = sharedRays - 1;
+		final float step = 360f / steps;
+		final int first = MathUtils.floor(arcStart / step) + 1;
+		final int last = MathUtils.ceil((arcStart + arcAngle) / step) - 1;
+		final int count = Math.max(0, last - first + 1) + 2;
+		ensureRayCapacity(count);
+		castEdgeRay(0, arcStart);
+		for (int k = first; k <= last; k++) {
+			setSharedRay(k - first + 1, shared, ((k % steps) + steps) % steps,
+					scale);
+		}
+		castEdgeRay(count - 1, arcStart + arcAngle);
+		vertexNum = count + 1;
+		setMesh();
+	}
+	
+	/**
+	 * Sets own ray directions and end points again after they were
+	 * replaced by directions of the group
+	 */
+	void restoreDirections() {
+		sharedDirections = false;
+		setEndPoints(rayArcStart, rayArcAngle);
+	}
+	
+	private void setSharedRay(int i, PointLight shared, int ray, float scale) {
+		final float c = cos[i] = shared.cos[ray];
+		final float s = sin[i] = shared.sin[ray];
+		final float l = distance * (f[i] = Math.min(1f, shared.f[ray] * scale));
+		mx[i] = start.x + c * l;
+		my[i] = start.y + s * l;
+	}
+	
+	private void castEdgeRay(int i, float degrees) {
+		m_index = i;
+		final float c = cos[i] = MathUtils.cosDeg(degrees);
+		final float s = sin[i] = MathUtils.sinDeg(degrees);
+		f[i] = 1f;
+		mx[i] = tmpEnd.x = start.x + c * distance;
+		my[i] = tmpEnd.y = start.y + s * distance;
+		castRay(start, tmpEnd);
+	}
+	
+	/**
+	 * Marks rays within angular intervals covered by occluders around the
+	 * light with NaN fraction, other rays can't hit anything
+	 * 
+	 * @return false if rays can't be culled and all of them must be cast
+	 */
+	protected boolean markOccupiedRays() {
+		if (rayArcAngle == 0f || rayNum < 2) return false;
+		
+		gatherNearOccluders();
+		for (int i = 0; i < rayNum; i++) {
+			f[i] = 1f;
+		}
+		final Occluders o = nearOccluders;
+		for (int k = 0; k < o.size; k++) {
+			final float from;
+			final float to;
+			if (o.type[k] == Occluders.CIRCLE) {
+				final float cx = o.x1[k] - start.x;
+				final float cy = o.y1[k] - start.y;
+				final float r = o.x2[k];
+				final float d = (float)Math.sqrt(cx * cx + cy * cy);
+				if (d <= r) return false;
+				final float center = (float)Math.atan2(cy, cx);
+				final float half = (float)Math.asin(r / d);
+				from = center - half;
+				to = center + half;
+			} else {
+				final float ax = o.x1[k] - start.x;
+				final float ay = o.y1[k] - start.y;
+				final float bx = o.x2[k] - start.x;
+				final float by = o.y2[k] - start.y;
+				final float cross = ax * by - ay * bx;
+				final float angleA = (float)Math.atan2(ay, ax);
+				final float angleB = (float)Math.atan2(by, bx);
+				if (cross == 0f) {
+					// segment in line with light, may even go through it
+					if (ax * bx + ay * by <= 0f) return false;
+					from = angleA;
+					to = angleA;
+				} else {
+					from = cross > 0f ? angleA : angleB;
+					to = cross > 0f ? angleB : angleA;
+				}
+			}
+			markOccupiedRays(from * MathUtils.radiansToDegrees,
+					to * MathUtils.radiansToDegrees);
+		}
+		return true;
+	}
+	
+	/**
+	 * Marks rays within counter clockwise interval between given angles,
+	 * and one ray more on both sides
+	 */
+	private void markOccupiedRays(float fromDegree, float toDegree) {
+		float width = toDegree - fromDegree;
+		if (width < 0f) width += 360f;
+		final float step = Math.abs(rayArcAngle) / (rayNum - 1);
+		// interval start relative to the arc, in the direction of rays
+		float relative = rayArcAngle > 0f ?
+				fromDegree - rayArcStart : rayArcStart - toDegree;
+		relative %= 360f;
+		if (relative < 0f) relative += 360f;
+		
+		// interval can also wrap over the arc start
+		for (float turn = 0f; turn >= -360f; turn -= 360f) {
+			final int first = Math.max(0,
+					MathUtils.floor((relative + turn) / step) - 1);
+			final int last = Math.min(rayNum - 1,
+					MathUtils.ceil((relative + turn + width) / step) + 1);
+			for (int i = first; i <= last; i++) {
+				f[i] = Float.NaN;
+			}
+		}
+	}
+	
+	/**
+	 * Casts all rays at once against fixtures gathered with a single world
+	 * query over the light bounds
+	 */
+	protected void updateMeshBatched() {
+		gatherNearOccluders();
+		
+		for (int i = 0; i < rayNum; i++) {
+			f[i] = 1f;
+		}
+		if (nearOccluders.size > 0) {
+			nearOccluders.rayCast(
+					this, start.x, start.y, endX, endY, f, rayNum);
+		}
+		for (int i = 0; i < rayNum; i++) {
+			mx[i] = start.x + endX[i] * f[i];
+			my[i] = start.y + endY[i] * f[i];
+		}
+		setMesh();
+	}
+	
+	/**
+	 * Builds exact visibility polygon of this light
+	 */
+	protected void updateMeshVisibility() {
+		sweepVisibility(getArcStart(), getArcAngle());
+	}
+	
+	/** @return direction in degrees where the arc covered by rays starts **/
+	protected float getArcStart() {
+		return 0f;
+	}
+	
+	/** @return counter clockwise angle of the arc covered by rays in degrees **/
+	protected float getArcAngle() {
+		return 360f;
+	}
+	
+	/**
+	 * Builds exact visibility polygon over given arc with an angular sweep
+	 * over the endpoints of occluders within light distance
+	 * 
+	 * <p>Number of vertices varies, {@link #rayNum} evenly spaced vertices
+	 * keep the arc round and two vertices are added at every visible
+	 * occluder corner
+	 * 
+	 * @param startDegree
+	 *            arc start direction in degrees
+	 * @param spanDegree
+	 *            counter clockwise arc angle in degrees
+	 */
+	protected void sweepVisibility(float startDegree, float spanDegree) {
+		ownDirections();
+		if (visibilitySweep == null) visibilitySweep = new VisibilitySweep();
+		final VisibilitySweep sweep = visibilitySweep;
+		final float startAngle = startDegree * MathUtils.degreesToRadians;
+		final float spanAngle = spanDegree * MathUtils.degreesToRadians;
+		if (incrementalSweep) {
+			sweepIncremental(startAngle, spanAngle);
+		} else {
+			sweepCached = false;
+			gatherNearOccluders();
+			sweep.sweep(this, nearOccluders, start.x, start.y, distance,
+					startAngle, spanAngle, rayNum);
+		}
+		
+		final int count = sweep.count;
+		ensureRayCapacity(count);
+		for (int i = 0; i < count; i++) {
+			final float c = cos[i] = (float)Math.cos(sweep.angle[i]);
+			final float s = sin[i] = (float)Math.sin(sweep.angle[i]);
+			final float l = distance * (f[i] = sweep.fraction[i]);
+			mx[i] = start.x + c * l;
+			my[i] = start.y + s * l;
+		}
+		vertexNum = count + 1;
+		setMesh();
+	}
+	
+	/**
+	 * Repeats last visibility sweep from moved light position with the
+	 * occluders and event order of the last one, occluders are gathered
+	 * and sorted again only if the light moved further than
+	 * {@link #sweepMargin} since they were gathered, or if the occluder
+	 * index reports changes around them
+	 */
+	private void sweepIncremental(float startAngle, float spanAngle) {
+		final OccluderIndex index = rayHandler.occluderIndex;
+		final float reach = distance + sweepMargin;
+		final float dx = start.x - sweepX;
+		final float dy = start.y - sweepY;
+		if (sweepCached && index != null && !index.changedAll &&
+			index.updateCount <= sweepIndexUpdate + 1 &&
+			sweepFilterVersion == filterVersion &&
+			distance == sweepDistance &&
+			startAngle == sweepStart && spanAngle == sweepSpan &&
+			dx * dx + dy * dy <= sweepMargin * sweepMargin &&
+			!changedNear(index, sweepX, sweepY, reach)) {
+			visibilitySweep.resweep(start.x, start.y, rayNum);
+		} else {
+			gatherNearOccluders(reach);
+			visibilitySweep.sweep(this, nearOccluders, start.x, start.y,
+					distance, reach, startAngle, spanAngle, rayNum);
+			sweepX = start.x;
+			sweepY = start.y;
+			sweepDistance = distance;
+			sweepStart = startAngle;
+			sweepSpan = spanAngle;
+			sweepFilterVersion = filterVersion;
+			sweepCached = index != null;
+		}
+		if (index != null) sweepIndexUpdate = index.updateCount;
+	}
+	
+	/**
+	 * @return if any bounds changed during last occluder index update
+	 *         overlap square with given center and half size, moves of
+	 *         ignored attached body don't count
+	 */
+	private boolean changedNear(OccluderIndex index, float x, float y,
+			float halfSize) {
+		final Body ignored = ignoreBody ? body : null;
+		final float[] bounds = index.changedBounds.items;
+		for (int i = 0, n = index.changedBounds.size; i < n; i += 4) {
+			if (ignored != null && i / 4 < index.changedBodies.size &&
+				index.changedBodies.get(i / 4) == ignored)
+				continue;
+			if (bounds[i] <= x + halfSize && bounds[i + 1] <= y + halfSize &&
+				bounds[i + 2] >= x - halfSize &&
+				bounds[i + 3] >= y - halfSize)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Casts rays adaptively over given arc
+	 * 
+	 * <p>Starts with {@link #minRayNum} evenly spaced rays, then repeatedly
+	 * adds a ray in the middle of every interval whose border rays hit
+	 * different fixtures or whose fractions differ more than
+	 * {@link #refineTolerance}, until nothing is left to refine or
+	 * {@link #rayNum} rays were cast. Intervals are never refined below the
+	 * spacing of {@link #rayNum} evenly spaced rays.
+	 * 
+	 * @param startDegree
+	 *            arc start direction in degrees
+	 * @param spanDegree
+	 *            counter clockwise arc angle in degrees
+	 */
+	protected void refineRays(float startDegree, float spanDegree) {
+		final int maxRays = rayNum;
+		ownDirections();
+		if (rayAngle == null || rayAngle.length < cos.length) {
+			rayAngle = new float[cos.length];
+			rayFixture = new Fixture[cos.length];
+		}
+		
+		final float startAngle = startDegree * MathUtils.degreesToRadians;
+		final float span = spanDegree * MathUtils.degreesToRadians;
+		final float minStep = span / (maxRays - 1);
+		int count = MathUtils.clamp(minRayNum, MIN_RAYS, maxRays);
+		for (int i = 0; i < count; i++) {
+			castAdaptiveRay(i, startAngle + span * i / (count - 1));
+		}
+		
+		while (count < maxRays) {
+			int candidates = 0;
+			for (int i = 1; i < count; i++) {
+				if (needsRefining(i - 1, i, minStep)) candidates++;
+			}
+			if (candidates == 0) break;
+			
+			// when out of rays only the first intervals are refined
+			final int splits = Math.min(candidates, maxRays - count);
+			
+			// spread rays from the back, so none is overwritten before read
+			int j = count + splits - 1;
+			for (int i = count - 1; i > 0; i--) {
+				final boolean split = needsRefining(i - 1, i, minStep) &&
+						--candidates < splits;
+				final float mid = (rayAngle[i - 1] + rayAngle[i]) * 0.5f;
+				moveRay(i, j--);
+				if (split) castAdaptiveRay(j--, mid);
 			}
+			count += splits;
 		}
+		
+		vertexNum = count + 1;
 		setMesh();
 	}
 	
+	private boolean needsRefining(int a, int b, float minStep) {
+		return rayAngle[b] - rayAngle[a] > minStep &&
+				(rayFixture[a] != rayFixture[b] ||
+				Math.abs(f[a] - f[b]) > refineTolerance);
+	}
+	
+	private void castAdaptiveRay(int i, float angle) {
+		m_index = i;
+		rayAngle[i] = angle;
+		final float c = cos[i] = MathUtils.cos(angle);
+		final float s = sin[i] = MathUtils.sin(angle);
+		f[i] = 1f;
+		mx[i] = tmpEnd.x = start.x + c * distance;
+		my[i] = tmpEnd.y = start.y + s * distance;
+		castRay(start, tmpEnd);
+		rayFixture[i] = hitFixture;
+	}
+	
+	private void moveRay(int from, int to) {
+		if (from == to) return;
+		rayAngle[to] = rayAngle[from];
+		rayFixture[to] = rayFixture[from];
+		cos[to] = cos[from];
+		sin[to] = sin[from];
+		mx[to] = mx[from];
+		my[to] = my[from];
+		f[to] = f[from];
+	}
+	
+	/**
+	 * Gathers fixtures within light distance to {@link #nearOccluders} with
+	 * single world query, or from the occluder index if it is used, and
+	 * walls of occluder grid if set
+	 */
+	protected void gatherNearOccluders() {
+		gatherNearOccluders(distance);
+	}
+	
+	/**
+	 * Gathers fixtures within given reach from light position to
+	 * {@link #nearOccluders}
+	 */
+	protected void gatherNearOccluders(float reach) {
+		nearOccluders.clear();
+		final OccluderIndex index = rayHandler.occluderIndex;
+		if (index != null) {
+			index.query(this,
+					start.x - reach, start.y - reach,
+					start.x + reach, start.y + reach,
+					nearOccluders);
+		} else {
+			rayHandler.world.QueryAABB(
+					nearOccludersCallback,
+					start.x - reach, start.y - reach,
+					start.x + reach, start.y + reach);
+		}
+		final OccluderGrid grid = rayHandler.occluderGrid;
+		if (grid != null) {
+			grid.query(
+					start.x - reach, start.y - reach,
+					start.x + reach, start.y + reach,
+					nearOccluders);
+		}
+	}
+	
 	protected void prepeareFixtureData() {
 		affectedFixtures.clear();
 		rayHandler.world.QueryAABB(
@@ -260,6 +854,12 @@ public abstract class PositionalLight extends Light {
 	}
 
 	protected void setMesh() {
+		if (rayHandler.deferMeshUpload) {
+			meshPending = true;
+			return;
+		}
+		
+		final int rays = vertexNum - 1;
 		// ray starting point
 		int size = 0;
 
@@ -268,19 +868,20 @@ public abstract class PositionalLight extends Light {
 		segments[size++] = colorF;
 		segments[size++] = 1;
 		// rays ending points.
-		for (int i = 0; i < rayNum; i++) {
+		for (int i = 0; i < rays; i++) {
 			segments[size++] = mx[i];
 			segments[size++] = my[i];
 			segments[size++] = colorF;
 			segments[size++] = 1 - f[i];
 		}
 		lightMesh.setVertices(segments, 0, size);
+		storeVertices(lightMesh, segments, 0, size, true);
 
 		if (!soft || xray || rayHandler.pseudo3d) return;
 
 		size = 0;
 		// rays ending points.
-		for (int i = 0; i < rayNum; i++) {
+		for (int i = 0; i < rays; i++) {
 			segments[size++] = mx[i];
 			segments[size++] = my[i];
 			segments[size++] = colorF;
@@ -292,8 +893,221 @@ public abstract class PositionalLight extends Light {
 			segments[size++] = 0f;
 		}
 		softShadowMesh.setVertices(segments, 0, size);
+		storeVertices(softShadowMesh, segments, 0, size, true);
+	}
+	
+	@Override
+	boolean stableVertices() {
+		// ray directions of these follow occluders or the group arc
+		return !adaptive && !visibilityPolygon && group == null;
+	}
+	
+	/**
+	 * @return if this light casts all rays at once
+	 */
+	public boolean isBatched() {
+		return batched;
+	}
+	
+	/**
+	 * Enables/disables batched raycasting
+	 * 
+	 * <p>If enabled the fixtures within light distance are gathered with
+	 * one world query and all rays are cast against their copied geometry
+	 * in a single loop, instead of one world raycast per ray. Light without
+	 * any fixtures around skips raycasting completely.
+	 * 
+	 * <p>Default = false
+	 */
+	public void setBatched(boolean batched) {
+		waitForUpdate();
+		this.batched = batched;
+		if (staticLight || motionAware) dirty = true;
+	}
+	
+	/**
+	 * @return group this light shares ray casts with, {@code null} if none
+	 * 
+	 * @see LightGroup
+	 */
+	public LightGroup getGroup() {
+		return group;
+	}
+	
+	/**
+	 * @return if this light skips rays that can't hit any occluder
+	 */
+	public boolean isOccupancyCulling() {
+		return occupancyCulling;
+	}
+	
+	/**
+	 * Enables/disables angular occupancy culling
+	 * 
+	 * <p>If enabled occluders within light distance are gathered with one
+	 * query before casting, and only rays within angular intervals covered
+	 * by them are cast, the rest are left unobstructed without any
+	 * raycast. Lights in mostly open areas then cast only few rays.
+	 * 
+	 * <p>Default = false
+	 */
+	public void setOccupancyCulling(boolean flag) {
+		waitForUpdate();
+		occupancyCulling = flag;
+		if (staticLight || motionAware) dirty = true;
+	}
+	
+	/**
+	 * @return if this light is built as exact visibility polygon
+	 */
+	public boolean isVisibilityPolygon() {
+		return visibilityPolygon;
+	}
+	
+	/**
+	 * Enables/disables exact visibility polygon mode
+	 * 
+	 * <p>If enabled the light shape is computed exactly with an angular
+	 * sweep over the corners of occluders around it instead of casting the
+	 * fixed fan of rays, so shadows have sharp corners even with low number
+	 * of rays, which then only controls the roundness of unobstructed arcs.
+	 * Works best for sparse geometry.
+	 * 
+	 * <p>Default = false
+	 */
+	public void setVisibilityPolygon(boolean flag) {
+		waitForUpdate();
+		visibilityPolygon = flag;
+		dirty = true;
+	}
+	
+	/**
+	 * @return if visibility sweep reuses gathered occluders and their
+	 *         sorted endpoints when the light moves
+	 */
+	public boolean isIncrementalSweep() {
+		return incrementalSweep;
+	}
+	
+	/**
+	 * Enables/disables incremental visibility sweep
+	 * 
+	 * <p>If enabled occluders around the light are gathered with some
+	 * margin and kept while the light moves within it, and their sorted
+	 * endpoints are only reordered where their order changed, instead of
+	 * gathering and sorting them again. The sweep over all endpoints still
+	 * runs on every update. Meant for lights moving a little every frame
+	 * near many occluders. Moving further than the margin, or changes of
+	 * geometry around the light, gather and sort them again.
+	 * 
+	 * <p>Changes are detected by occluder index, which is enabled for the
+	 * rayHandler of this light too. Has no effect unless
+	 * {@link #setVisibilityPolygon(boolean)} is enabled.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see RayHandler#setOccluderIndex(boolean)
+	 */
+	public void setIncrementalSweep(boolean flag) {
+		waitForUpdate();
+		incrementalSweep = flag;
+		sweepCached = false;
+		if (flag && rayHandler != null) rayHandler.setOccluderIndex(true);
+		if (staticLight || motionAware) dirty = true;
+	}
+	
+	/**
+	 * Sets how far the light can move before incremental sweep gathers
+	 * occluders again, 1f by default
+	 * 
+	 * <p>Larger margin gathers less often, but every update sweeps over
+	 * more occluders.
+	 */
+	public void setSweepMargin(float margin) {
+		waitForUpdate();
+		sweepMargin = Math.max(0f, margin);
+		sweepCached = false;
+	}
+	
+	@Override
+	public void setFilter(Filter filter) {
+		super.setFilter(filter);
+		sweepCached = false;
+	}
+	
+	@Override
+	public void setIgnoreAttachedBody(boolean flag) {
+		super.setIgnoreAttachedBody(flag);
+		sweepCached = false;
+	}
+	
+	/**
+	 * @return if this light refines rays adaptively
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+	
+	/**
+	 * Enables/disables adaptive ray refinement
+	 * 
+	 * <p>If enabled the light starts with a coarse fan of rays and only adds
+	 * rays where neighbouring ones disagree, so open areas and flat walls
+	 * take few rays while shadow edges still get the full resolution. Number
+	 * of rays set for the light becomes the maximum.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see #setAdaptiveRays(int, float)
+	 */
+	public void setAdaptive(boolean flag) {
+		waitForUpdate();
+		adaptive = flag;
+		dirty = true;
+	}
+	
+	/**
+	 * Sets adaptive ray refinement parameters
+	 * 
+	 * @param minRays
+	 *            number of evenly spaced rays cast first, capped between
+	 *            MIN_RAYS and number of rays of this light
+	 * @param tolerance
+	 *            maximal difference of neighbouring ray fractions that
+	 *            doesn't need more rays in between, 0.1f by default
+	 */
+	public void setAdaptiveRays(int minRays, float tolerance) {
+		waitForUpdate();
+		minRayNum = minRays;
+		refineTolerance = tolerance;
+		if (staticLight || motionAware) dirty = true;
+	}
+	
+	/**
+	 * @return number of evenly spaced rays cast first in adaptive mode
+	 */
+	public int getMinRayNum() {
+		return minRayNum;
 	}
 	
+	/**
+	 * @return fraction difference tolerated between neighbouring rays in
+	 *         adaptive mode
+	 */
+	public float getRefineTolerance() {
+		return refineTolerance;
+	}
+	
+	final QueryCallback nearOccludersCallback = new QueryCallback() {
+		
+		@Override
+		public boolean reportFixture(Fixture fixture) {
+			nearOccluders.add(fixture);
+			return true;
+		}
+		
+	};
+	
 	@Override
 	protected boolean onDynamicCallback(Fixture fixture) {
 		return fixture.getBody() != body;
@@ -1,5 +1,7 @@
 package box2dLight;
 
+import java.util.Comparator;
+
 import shaders.LightShader;
 
 import com.badlogic.gdx.Gdx;
@@ -11,9 +13,14 @@ import com.badlogic.gdx.graphics.glutils.FrameBuffer;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.physics.box2d.World;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.TimeUtils;
+import com.badlogic.gdx.utils.async.AsyncExecutor;
+import com.badlogic.gdx.utils.async.AsyncResult;
+import com.badlogic.gdx.utils.async.AsyncTask;
 
 /**
  * Handler that manages everything related to lights updating and rendering
@@ -99,12 +106,65 @@ public class RayHandler implements Disposable {
 	
 	/** How many lights passed culling and rendered to scene last time */
 	int lightRenderedLastFrame = 0;
+	
+	/** Number of updates, tells work shared by lights apart between them **/
+	int updateCount = 0;
 
 	/** camera matrix corners */
 	float x1, x2, y1, y2;
 
 	World world;
 	
+	/** Java side copy of world geometry, {@code null} if not used **/
+	OccluderIndex occluderIndex;
+	
+	/** Tile walls casting shadows, {@code null} if not used **/
+	OccluderGrid occluderGrid;
+	
+	/** Parallel update variables **/
+	AsyncExecutor updateExecutor;
+	boolean ownUpdateExecutor = false;
+	int updateTasks = 1;
+	private LightUpdateTask[] lightUpdateTasks = new LightUpdateTask[0];
+	private final Array<AsyncResult<Void>> updateResults =
+			new Array<AsyncResult<Void>>();
+	
+	/** Set while lights are updated off the GL thread **/
+	boolean deferMeshUpload = false;
+	
+	/** Light changes posted by other threads **/
+	final LightCommandQueue commandQueue = new LightCommandQueue();
+	
+	/** Set if light meshes are interpolated between updates **/
+	boolean interpolation = false;
+	
+	/** Pipelined update variables **/
+	AsyncExecutor pipelineExecutor;
+	private AsyncResult<Void> pipelineResult;
+	private final PipelineTask pipelineTask = new PipelineTask();
+	/**
+	 * Set while pipelined update runs, attached bodies were read before it
+	 * started and must not be touched by lights
+	 */
+	boolean bodiesCaptured = false;
+	
+	/** Frame budget scheduler variables, budget of 0 disables it **/
+	long updateBudget = 0;
+	int maxStaleFrames = 8;
+	boolean customFocus = false;
+	float focusX, focusY;
+	int lightsUpdatedLastFrame = 0;
+	int lightsSkippedLastFrame = 0;
+	private final Array<Light> scheduledLights = new Array<Light>(false, 16);
+	private final Rectangle scheduleReach = new Rectangle();
+	private static final Comparator<Light> byPriority =
+			new Comparator<Light>() {
+		@Override
+		public int compare(Light a, Light b) {
+			return Float.compare(b.schedulePriority, a.schedulePriority);
+		}
+	};
+	
 	/**
 	 * Class constructor specifying the physics world from where collision
 	 * geometry is taken.
@@ -183,6 +243,7 @@ public class RayHandler implements Disposable {
 	 * @see #setCombinedMatrix(Matrix4, float, float, float, float)
 	 */
 	public void setCombinedMatrix(Matrix4 combined) {
+		finishUpdate();
 		System.arraycopy(combined.val, 0, this.combined.val, 0, 16);
 
 		// updateCameraCorners
@@ -228,6 +289,7 @@ public class RayHandler implements Disposable {
 	public void setCombinedMatrix(Matrix4 combined, float x, float y,
 			float viewPortWidth, float viewPortHeight) {
 		
+		finishUpdate();
 		System.arraycopy(combined.val, 0, this.combined.val, 0, 16);
 		// updateCameraCorners
 		final float halfViewPortWidth = viewPortWidth * 0.5f;
@@ -280,10 +342,215 @@ public class RayHandler implements Disposable {
 	 * @see #render()
 	 */
 	public void update() {
+		finishUpdate();
+		commandQueue.execute();
+		updateCount++;
+		if (occluderIndex != null && world != null) {
+			occluderIndex.update(world);
+			if (occluderGrid != null) {
+				occluderGrid.flushChanges(occluderIndex.changedBounds);
+			}
+			markMovedLights();
+		}
+		if (pipelineExecutor != null && occluderIndex != null && !pseudo3d) {
+			for (Light light : lightList) {
+				light.updateBody();
+			}
+			bodiesCaptured = true;
+			deferMeshUpload = true;
+			pipelineResult = pipelineExecutor.submit(pipelineTask);
+			return;
+		}
+		updateLights();
+	}
+	
+	/**
+	 * Updates all lights on the calling thread, or splits them between
+	 * executor threads
+	 */
+	private void updateLights() {
+		if (updateBudget > 0) {
+			updateScheduled();
+			return;
+		}
+		if (updateExecutor != null && occluderIndex != null && !pseudo3d &&
+			lightList.size > 1) {
+			updateParallel();
+			return;
+		}
 		for (Light light : lightList) {
 			light.update();
 		}
 	}
+	
+	/**
+	 * Marks motion aware lights affected by changes found during last
+	 * occluder index update as dirty
+	 */
+	private void markMovedLights() {
+		for (Light light : lightList) {
+			if (light.motionAware && !light.dirty &&
+				light.affectedByMotion(occluderIndex)) {
+				light.dirty = true;
+			}
+		}
+	}
+	
+	/**
+	 * Splits lights into ranges updated by executor threads and the calling
+	 * thread, then uploads computed meshes on the calling thread
+	 * 
+	 * <p>Transforms of attached bodies are read on the calling thread
+	 * first, physics world isn't touched by executor threads.
+	 */
+	private void updateParallel() {
+		final int count = lightList.size;
+		final int tasks = Math.min(updateTasks, count);
+		if (lightUpdateTasks.length < tasks) {
+			lightUpdateTasks = new LightUpdateTask[tasks];
+			for (int t = 0; t < tasks; t++) {
+				lightUpdateTasks[t] = new LightUpdateTask();
+			}
+		}
+		for (int t = 0; t < tasks; t++) {
+			lightUpdateTasks[t].from = count * t / tasks;
+			lightUpdateTasks[t].to = count * (t + 1) / tasks;
+		}
+		
+		// pipelined update captured bodies before it started
+		final boolean captured = bodiesCaptured;
+		if (!captured) {
+			for (Light light : lightList) {
+				light.updateBody();
+			}
+			bodiesCaptured = true;
+		}
+		final boolean deferred = deferMeshUpload;
+		deferMeshUpload = true;
+		try {
+			for (int t = 1; t < tasks; t++) {
+				updateResults.add(updateExecutor.submit(lightUpdateTasks[t]));
+			}
+			lightUpdateTasks[0].call();
+		} finally {
+			for (AsyncResult<Void> result : updateResults) {
+				result.get();
+			}
+			updateResults.clear();
+			deferMeshUpload = deferred;
+			bodiesCaptured = captured;
+		}
+		
+		// pipelined update uploads meshes when render waits for it
+		if (!deferred) uploadPendingMeshes();
+	}
+	
+	/** Uploads meshes computed while their upload was deferred **/
+	private void uploadPendingMeshes() {
+		for (Light light : lightList) {
+			if (light.meshPending) {
+				light.meshPending = false;
+				light.setMesh();
+			}
+		}
+	}
+	
+	/**
+	 * Waits for pipelined update in flight, if there is any, and uploads
+	 * its meshes, so lights can be rendered or changed again
+	 */
+	void finishUpdate() {
+		if (pipelineResult == null) return;
+		try {
+			pipelineResult.get();
+		} finally {
+			pipelineResult = null;
+			bodiesCaptured = false;
+			deferMeshUpload = false;
+		}
+		uploadPendingMeshes();
+	}
+	
+	/** Updates lights in the background for pipelined update **/
+	private class PipelineTask implements AsyncTask<Void> {
+		@Override
+		public Void call() {
+			updateLights();
+			return null;
+		}
+	}
+	
+	/**
+	 * Updates lights in order of their priority until frame budget runs
+	 * out, the first one and lights skipped too many times in a row are
+	 * updated regardless
+	 * 
+	 * <p>Lights whose reach is off current camera or that don't need
+	 * recomputing are updated first, as it only checks their state, and
+	 * aren't counted.
+	 */
+	private void updateScheduled() {
+		final long begin = TimeUtils.nanoTime();
+		int updated = 0;
+		int skipped = 0;
+		
+		final float extent = Math.max(Math.max(x2 - x1, y2 - y1), 1e-3f);
+		final float fx = customFocus ? focusX : (x1 + x2) * 0.5f;
+		final float fy = customFocus ? focusY : (y1 + y2) * 0.5f;
+		final Rectangle reach = scheduleReach;
+		scheduledLights.clear();
+		for (Light light : lightList) {
+			light.getReach(reach);
+			if ((culling && !(reach.x < x2 && reach.x + reach.width > x1 &&
+				reach.y < y2 && reach.y + reach.height > y1)) ||
+				((light.staticLight || light.motionAware) && !light.dirty)) {
+				light.update();
+				light.staleFrames = 0;
+				continue;
+			}
+			
+			// screen coverage, falling with distance of reach from focus
+			final float radius = Math.max(reach.width, reach.height) * 0.5f;
+			final float size = Math.min(1f, radius * 2f / extent);
+			final float dx = reach.x + reach.width * 0.5f - fx;
+			final float dy = reach.y + reach.height * 0.5f - fy;
+			final float away = Math.max(0f,
+					(float)Math.sqrt(dx * dx + dy * dy) - radius);
+			light.schedulePriority = light.updateWeight * size *
+					(light.staleFrames + 1) / (1f + away / extent);
+			scheduledLights.add(light);
+		}
+		
+		scheduledLights.sort(byPriority);
+		for (Light light : scheduledLights) {
+			if (updated == 0 || light.staleFrames + 1 >= maxStaleFrames ||
+				TimeUtils.nanoTime() - begin < updateBudget) {
+				light.update();
+				light.staleFrames = 0;
+				updated++;
+			} else {
+				light.staleFrames++;
+				skipped++;
+			}
+		}
+		scheduledLights.clear();
+		lightsUpdatedLastFrame = updated;
+		lightsSkippedLastFrame = skipped;
+	}
+	
+	/** Updates range of lights from {@link #lightList} **/
+	private class LightUpdateTask implements AsyncTask<Void> {
+		int from;
+		int to;
+		
+		@Override
+		public Void call() {
+			for (int i = from; i < to; i++) {
+				lightList.get(i).update();
+			}
+			return null;
+		}
+	}
 
 	/**
 	 * Manual rendering method for all lights.
@@ -298,10 +565,33 @@ public class RayHandler implements Disposable {
 	 * 
 	 * @see #updateAndRender()
 	 * @see #update()
+	 * @see #render(float)
 	 * @see #setCombinedMatrix(Matrix4)
 	 * @see #setCombinedMatrix(Matrix4, float, float, float, float)
 	 */
 	public void render() {
+		render(1f);
+	}
+	
+	/**
+	 * Manual rendering method for all lights, interpolated between last two
+	 * updates if interpolation is enabled
+	 * 
+	 * @param alpha
+	 *            position between previous and last update, 0 for the
+	 *            previous one and 1 for the last one, usually the fraction
+	 *            of fixed physics step elapsed since last update
+	 * 
+	 * @see #render()
+	 * @see #setInterpolation(boolean)
+	 */
+	public void render(float alpha) {
+		finishUpdate();
+		if (interpolation) {
+			for (Light light : lightList) {
+				light.interpolate(alpha);
+			}
+		}
 		lightRenderedLastFrame = 0;
 
 		Gdx.gl.glDepthMask(false);
@@ -352,6 +642,7 @@ public class RayHandler implements Disposable {
 	 * @return true if point is inside of any light volume
 	 */
 	public boolean pointAtLight(float x, float y) {
+		finishUpdate();
 		for (Light light : lightList) {
 			if (light.contains(x, y)) return true;
 		}
@@ -364,6 +655,7 @@ public class RayHandler implements Disposable {
 	 * @return true if point is NOT inside of any light volume
 	 */
 	public boolean pointAtShadow(float x, float y) {
+		finishUpdate();
 		for (Light light : lightList) {
 			if (light.contains(x, y)) return false;
 		}
@@ -374,15 +666,18 @@ public class RayHandler implements Disposable {
 	 * Disposes all this rayHandler lights and resources
 	 */
 	public void dispose() {
+		setPipelinedUpdate(false);
 		removeAll();
 		if (lightMap != null) lightMap.dispose();
 		if (lightShader != null) lightShader.dispose();
+		setParallelUpdate(1);
 	}
 
 	/**
 	 * Removes and disposes both all active and disabled lights
 	 */
 	public void removeAll() {
+		finishUpdate();
 		for (Light light : lightList) {
 			light.dispose();
 		}
@@ -402,6 +697,7 @@ public class RayHandler implements Disposable {
 	 * <p>Default = true
 	 */
 	public void setCulling(boolean culling) {
+		finishUpdate();
 		this.culling = culling;
 	}
 
@@ -497,7 +793,323 @@ public class RayHandler implements Disposable {
 	 * Sets physics world to work with for this rayHandler
 	 */
 	public void setWorld(World world) {
+		finishUpdate();
 		this.world = world;
+		if (occluderIndex != null) occluderIndex.invalidate();
+	}
+	
+	/**
+	 * Enables/disables Java side occluder index.
+	 * 
+	 * <p>If enabled the world fixtures are copied to a bounding volume
+	 * hierarchy and lights cast their rays against it instead of calling
+	 * {@link World#rayCast}, which saves a JNI call and callback per ray.
+	 * Static bodies are indexed once, dynamic and kinematic bodies are
+	 * followed on every {@link #update()}. Hit results are the same as
+	 * physics world would give.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see #updateOccluderIndex()
+	 */
+	public void setOccluderIndex(boolean enabled) {
+		if (enabled == (occluderIndex != null)) return;
+		finishUpdate();
+		occluderIndex = enabled ? new OccluderIndex() : null;
+	}
+	
+	/**
+	 * @return if Java side occluder index is used
+	 */
+	public boolean isOccluderIndex() {
+		return occluderIndex != null;
+	}
+	
+	/**
+	 * Forces full occluder index rebuild on next update.
+	 * 
+	 * <p>Adding and removing bodies or fixtures is detected automatically,
+	 * but moving static bodies, changing fixture shapes or filters, and
+	 * activating or deactivating bodies need this call.
+	 * 
+	 * @see #setOccluderIndex(boolean)
+	 */
+	public void updateOccluderIndex() {
+		if (occluderIndex != null) occluderIndex.invalidate();
+	}
+
+	/**
+	 * Sets grid of solid tiles casting shadows in addition to the physics
+	 * world, so tile map walls don't need any Box2D bodies
+	 * 
+	 * @param grid
+	 *            grid to cast rays through, {@code null} to remove it
+	 */
+	public void setOccluderGrid(OccluderGrid grid) {
+		finishUpdate();
+		if (occluderGrid != null) occluderGrid.rayHandler = null;
+		occluderGrid = grid;
+		if (grid != null) {
+			grid.rayHandler = this;
+			grid.invalidate();
+		} else if (occluderIndex != null) {
+			occluderIndex.invalidate();
+		}
+	}
+	
+	/**
+	 * @return grid of solid tiles casting shadows, {@code null} if not set
+	 */
+	public OccluderGrid getOccluderGrid() {
+		return occluderGrid;
+	}
+	
+	/**
+	 * Sets time budget of light updates per frame
+	 * 
+	 * <p>If set, lights are ranked by the number of updates they missed,
+	 * their size on screen, their distance from focus point and their
+	 * weight, then updated in that order until the budget is spent. The
+	 * remaining lights keep rendering their last mesh. Any light skipped
+	 * {@code maxStaleFrames - 1} times in a row is updated in the next
+	 * update regardless of the budget. Lights are updated serially.
+	 * 
+	 * <p>Default = 0 (disabled)
+	 * 
+	 * @param nanos
+	 *            time budget in nanoseconds, 0 or less updates all lights
+	 * 
+	 * @see #setMaxStaleFrames(int)
+	 * @see #setUpdateFocus(float, float)
+	 * @see Light#setUpdateWeight(float)
+	 */
+	public void setUpdateBudget(long nanos) {
+		finishUpdate();
+		updateBudget = Math.max(0, nanos);
+		lightsSkippedLastFrame = 0;
+		if (updateBudget == 0) {
+			for (Light light : lightList) {
+				light.staleFrames = 0;
+			}
+		}
+	}
+	
+	/**
+	 * @return time budget of light updates per frame in nanoseconds, 0 if
+	 *         all lights are updated
+	 */
+	public long getUpdateBudget() {
+		return updateBudget;
+	}
+	
+	/**
+	 * Sets how often every visible light is updated at least when frame
+	 * budget is set
+	 * 
+	 * <p>Default = 8
+	 * 
+	 * @param frames
+	 *            maximal number of updates between two updates of a light,
+	 *            1 updates all of them every time
+	 * 
+	 * @see #setUpdateBudget(long)
+	 */
+	public void setMaxStaleFrames(int frames) {
+		finishUpdate();
+		maxStaleFrames = Math.max(1, frames);
+	}
+	
+	/**
+	 * Sets point whose surrounding lights are updated first when frame
+	 * budget is set, usually position of the player
+	 * 
+	 * <p>Default = center of the camera
+	 * 
+	 * @see #setUpdateBudget(long)
+	 */
+	public void setUpdateFocus(float x, float y) {
+		finishUpdate();
+		customFocus = true;
+		focusX = x;
+		focusY = y;
+	}
+	
+	/**
+	 * Sets camera center as focus point of frame budget scheduling
+	 * 
+	 * @see #setUpdateFocus(float, float)
+	 */
+	public void useDefaultUpdateFocus() {
+		finishUpdate();
+		customFocus = false;
+	}
+	
+	/**
+	 * @return number of lights updated by frame budget scheduler in last
+	 *         update, not counting off screen and unchanged lights
+	 */
+	public int getLightsUpdatedLastFrame() {
+		return lightsUpdatedLastFrame;
+	}
+	
+	/**
+	 * @return number of lights that kept their previous mesh in last update
+	 *         as frame budget ran out
+	 */
+	public int getLightsSkippedLastFrame() {
+		return lightsSkippedLastFrame;
+	}
+	
+	/**
+	 * Enables/disables parallel light update
+	 * 
+	 * <p>If enabled lights are split between given number of threads, one
+	 * of them being the thread calling {@link #update()}. Rays are cast
+	 * against the occluder index, which is enabled too, as physics world
+	 * can't be used from multiple threads. Meshes are still uploaded by the
+	 * calling thread after all lights are updated.
+	 * 
+	 * <p>Physics world must not be changed while lights are updated.
+	 * Lights are updated serially in pseudo3d mode.
+	 * 
+	 * <p>Default = 1 (disabled)
+	 * 
+	 * @param threads
+	 *            number of threads to update lights with, 1 or less
+	 *            disables parallel update
+	 * 
+	 * @see #setParallelUpdate(AsyncExecutor, int)
+	 */
+	public void setParallelUpdate(int threads) {
+		if (threads > 1) {
+			setParallelUpdate(new AsyncExecutor(threads - 1), threads);
+			ownUpdateExecutor = true;
+		} else {
+			setParallelUpdate(null, 1);
+		}
+	}
+	
+	/**
+	 * Enables/disables parallel light update with user supplied executor,
+	 * which is not disposed by this rayHandler
+	 * 
+	 * @param executor
+	 *            executor to update lights with, {@code null} disables
+	 *            parallel update
+	 * @param tasks
+	 *            number of parts lights are split into, one of them is
+	 *            updated by the thread calling {@link #update()}
+	 * 
+	 * @see #setParallelUpdate(int)
+	 */
+	public void setParallelUpdate(AsyncExecutor executor, int tasks) {
+		finishUpdate();
+		if (ownUpdateExecutor && updateExecutor != executor) {
+			updateExecutor.dispose();
+		}
+		ownUpdateExecutor = false;
+		updateExecutor = executor;
+		updateTasks = executor != null ? Math.max(tasks, 1) : 1;
+		if (executor != null) setOccluderIndex(true);
+	}
+	
+	/**
+	 * @return if lights are updated in parallel
+	 */
+	public boolean isParallelUpdate() {
+		return updateExecutor != null;
+	}
+	
+	/**
+	 * Returns queue of light changes that may be posted from any thread,
+	 * they are applied at the start of next {@link #update()}
+	 * 
+	 * <p>Use it instead of light setters from threads other than the one
+	 * updating and rendering lights, which doesn't need any locking then.
+	 */
+	public LightCommandQueue getCommandQueue() {
+		return commandQueue;
+	}
+	
+	/**
+	 * Enables/disables interpolation of lights between updates
+	 * 
+	 * <p>If enabled, light and soft shadow vertices of last two updates are
+	 * kept and {@link #render(float)} renders lights between them, so lights
+	 * can be updated at physics rate, which may be much lower than frame
+	 * rate, and still move smoothly. Lights are rendered one update behind.
+	 * 
+	 * <p>Vertices of lights not recomputed in last update, lights whose
+	 * number of vertices changed and adaptive, visibility polygon or
+	 * grouped lights, which don't keep their ray directions, are rendered
+	 * as they were updated. Pseudo3d shadows aren't interpolated.
+	 * 
+	 * <p>Default = false
+	 */
+	public void setInterpolation(boolean enabled) {
+		if (enabled == interpolation) return;
+		finishUpdate();
+		if (!enabled) {
+			for (Light light : lightList) {
+				light.clearHistory();
+			}
+			for (Light light : disabledLights) {
+				light.clearHistory();
+			}
+		}
+		interpolation = enabled;
+	}
+	
+	/**
+	 * @return if lights are interpolated between updates
+	 */
+	public boolean isInterpolation() {
+		return interpolation;
+	}
+	
+	/**
+	 * Enables/disables pipelined light update
+	 * 
+	 * <p>If enabled {@link #update()} only synchronizes occluder index with
+	 * the world and reads transforms of bodies lights are attached to, then
+	 * returns while lights are updated by a background thread. Meshes keep
+	 * the previous result until {@link #render()} waits for the update to
+	 * finish and uploads new ones, so light update overlaps with whatever
+	 * the game does between these two calls, including stepping the world.
+	 * Occluder index is enabled too, as lights only cast rays against it.
+	 * 
+	 * <p>Methods changing lights, occluder grid or camera, and methods of
+	 * this rayHandler reading lights, like
+	 * {@link #pointAtLight(float, float)}, wait for the update to finish
+	 * themselves, so call them before {@link #update()} or after
+	 * {@link #render()} to keep the overlap. Other threads post light
+	 * changes to {@link #getCommandQueue()}. Lights are updated serially in
+	 * pseudo3d mode.
+	 * Parallel update and update budget still apply to the background
+	 * update.
+	 * 
+	 * <p>Default = false
+	 * 
+	 * @see #setParallelUpdate(int)
+	 */
+	public void setPipelinedUpdate(boolean enabled) {
+		if (enabled == (pipelineExecutor != null)) return;
+		if (enabled) {
+			pipelineExecutor = new AsyncExecutor(1);
+			setOccluderIndex(true);
+		} else {
+			finishUpdate();
+			pipelineExecutor.dispose();
+			pipelineExecutor = null;
+		}
+	}
+	
+	/**
+	 * @return if lights are updated in the background between
+	 *         {@link #update()} and {@link #render()}
+	 */
+	public boolean isPipelinedUpdate() {
+		return pipelineExecutor != null;
 	}
 
 	/**
@@ -559,6 +1171,7 @@ public class RayHandler implements Disposable {
 	 * @param flag
 	 */
 	public void setPseudo3dLight(boolean flag) {
+		finishUpdate();
 		pseudo3d = flag;
 	}
 	
@@ -568,6 +1181,7 @@ public class RayHandler implements Disposable {
 	 * @param flag
 	 */
 	public void setPseudo3dLight(boolean flag, boolean interpolateShadows) {
+		finishUpdate();
 		pseudo3d = flag;
 		shadowColorInterpolation = interpolateShadows;
 	}
@@ -0,0 +1,92 @@
+package box2dLight;
+
+import com.badlogic.gdx.graphics.Mesh;
+
+/**
+ * Vertices of light mesh uploaded in current and previous update, used to
+ * interpolate light between updates
+ *
+ * <p>Vertices are 4 floats: position, packed color and shadow factor.
+ * Positions and shadow factors are interpolated, colors are always taken
+ * from current update.
+ */
+final class VertexHistory {
+
+	static final int VERTEX_SIZE = 4;
+
+	float[] previous = new float[0];
+	float[] current = new float[0];
+	private float[] blend = new float[0];
+	int previousSize = 0;
+	int currentSize = 0;
+	/** RayHandler update in which current vertices were stored **/
+	int updated = -1;
+	/** Set if mesh holds interpolated vertices instead of current ones **/
+	private boolean blended = false;
+
+	/**
+	 * Stores vertices uploaded to mesh during given update, vertices stored
+	 * during previous update become previous ones
+	 *
+	 * @param whole
+	 *            if vertices replace whole mesh, otherwise they are
+	 *            written from offset over the current ones
+	 */
+	void store(int update, float[] vertices, int offset, int size,
+			boolean whole) {
+		if (updated != update) {
+			final float[] swap = previous;
+			previous = current;
+			previousSize = currentSize;
+			current = ensureCapacity(swap, previousSize);
+			System.arraycopy(previous, 0, current, 0, previousSize);
+			currentSize = previousSize;
+			updated = update;
+		}
+		current = ensureCapacity(current, offset + size);
+		System.arraycopy(vertices, offset, current, offset, size);
+		currentSize = whole ? size : Math.max(currentSize, offset + size);
+		blended = false;
+	}
+
+	/**
+	 * Uploads vertices between previous and current ones to mesh, or the
+	 * current ones if vertices didn't change during given update or can't
+	 * be matched
+	 *
+	 * @param alpha
+	 *            0 for previous vertices, 1 for current ones
+	 */
+	void apply(Mesh mesh, int update, float alpha, boolean stable) {
+		if (!stable || updated != update || alpha >= 1f ||
+			previousSize != currentSize) {
+			if (blended) {
+				mesh.setVertices(current, 0, currentSize);
+				blended = false;
+			}
+			return;
+		}
+
+		final int size = currentSize;
+		final float[] a = previous;
+		final float[] b = current;
+		final float[] v = blend = ensureCapacity(blend, size);
+		final float t = Math.max(alpha, 0f);
+		for (int i = 0; i < size; i += VERTEX_SIZE) {
+			v[i] = a[i] + (b[i] - a[i]) * t;
+			v[i + 1] = a[i + 1] + (b[i + 1] - a[i + 1]) * t;
+			v[i + 2] = b[i + 2];
+			v[i + 3] = a[i + 3] + (b[i + 3] - a[i + 3]) * t;
+		}
+		mesh.setVertices(v, 0, size);
+		blended = true;
+	}
+
+	private static float[] ensureCapacity(float[] array, int size) {
+		if (array.length >= size) return array;
+		final float[] grown = new float[Math.max(size, array.length * 2)];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+}
@@ -0,0 +1,664 @@
+package box2dLight;
+
+import com.badlogic.gdx.math.MathUtils;
+
+/**
+ * Computes exact visibility polygon of a light with an angular sweep over
+ * the endpoints of occluders around it
+ *
+ * <p>Occluder angular intervals are sorted once, then the sweep keeps the
+ * set of occluders overlapping the current angle and resolves the closest
+ * one only at interval endpoints and at evenly spaced arc samples, which
+ * keep the unobstructed parts of the light round.
+ *
+ * <p>Output vertices are ordered by angle, each one given by its direction
+ * and its fraction of the light distance.
+ *
+ * <p>Sweep can be repeated from a slightly moved origin with the same
+ * occluders. Events are then kept in their previous order and only those
+ * whose order changed are moved, instead of sorting all of them again.
+ * The sweep itself still runs over all events.
+ */
+class VisibilitySweep {
+
+	/** Tolerance for hits at occluder endpoints **/
+	static final float ENDPOINT_EPSILON = 1e-4f;
+
+	/** Number of output vertices **/
+	int count;
+	float[] angle = new float[64];
+	float[] fraction = new float[64];
+
+	/** Occluders of angular intervals relative to sweep start **/
+	private int intervalCount;
+	private int[] intervalOccluder = new int[32];
+	private float[] intervalStart = new float[32];
+	private float[] intervalEnd = new float[32];
+	/** Interval of occluder beyond radius, only kept for resweeps **/
+	private boolean[] intervalInert = new boolean[32];
+	/** Occluder, bitwise negated if interval begins at sweep start **/
+	private int[] intervalKey = new int[32];
+	private int[] previousKey = new int[32];
+	private int previousCount;
+
+	/** Interval start and end events sorted by angle **/
+	private int eventCount;
+	private float[] eventAngle = new float[64];
+	/** Interval index, bitwise negated for end events **/
+	private int[] eventInterval = new int[64];
+
+	/** Occluders overlapping current sweep angle **/
+	private int activeCount;
+	private int[] active = new int[32];
+
+	private Light light;
+	private Occluders occluders;
+	private float originX;
+	private float originY;
+	private float radius;
+	private float reach;
+	private float startAngle;
+	private float spanAngle;
+
+	/** Angle of the last vertex and occluder closest right after it **/
+	private float lastAngle;
+	private int current;
+	private int closestOccluder;
+
+	/** Intersection points of surfaces, relative to origin **/
+	private final float[] pointX = new float[2];
+	private final float[] pointY = new float[2];
+
+	/**
+	 * Sweeps the arc from startAngle counter clockwise over spanAngle
+	 *
+	 * @param light
+	 *            light whose filter is applied to occluders
+	 * @param occluders
+	 *            occluders around the light
+	 * @param arcSamples
+	 *            number of evenly spaced vertices over the arc, including
+	 *            both of its ends
+	 */
+	void sweep(Light light, Occluders occluders, float x, float y,
+			float radius, float startAngle, float spanAngle, int arcSamples) {
+		sweep(light, occluders, x, y, radius, radius, startAngle, spanAngle,
+				arcSamples);
+	}
+
+	/**
+	 * Sweeps the arc keeping track of occluders up to reach from origin,
+	 * occluders beyond radius don't affect the output. Occluders kept
+	 * by {@link #resweep(float, float, int)} are then valid as long as the
+	 * origin stays within reach - radius of this one.
+	 */
+	void sweep(Light light, Occluders occluders, float x, float y,
+			float radius, float reach, float startAngle, float spanAngle,
+			int arcSamples) {
+		this.light = light;
+		this.occluders = occluders;
+		this.radius = radius;
+		this.reach = reach;
+		this.startAngle = startAngle;
+		this.spanAngle = spanAngle;
+		setOrigin(x, y);
+
+		addEvents();
+		sortEvents();
+		run(arcSamples);
+	}
+
+	/**
+	 * Sweeps the arc of last sweep again from new origin with the same
+	 * occluders
+	 *
+	 * <p>If every occluder covers the same intervals as before, events
+	 * keep their previous order and only events that changed order are
+	 * moved, otherwise events are rebuilt.
+	 *
+	 * @return number of event moves, or -1 if events were rebuilt
+	 */
+	int resweep(float x, float y, int arcSamples) {
+		final int[] key = previousKey;
+		previousKey = intervalKey;
+		intervalKey = key;
+		previousCount = intervalCount;
+		setOrigin(x, y);
+
+		int moves = -1;
+		if (sameIntervals()) {
+			for (int k = 0; k < eventCount; k++) {
+				final int interval = eventInterval[k];
+				eventAngle[k] = interval >= 0 ?
+						intervalStart[interval] : intervalEnd[~interval];
+			}
+			moves = resortEvents();
+		} else {
+			addEvents();
+			sortEvents();
+		}
+		run(arcSamples);
+		return moves;
+	}
+
+	/** Moves origin and recalculates intervals of all occluders **/
+	private void setOrigin(float x, float y) {
+		originX = x;
+		originY = y;
+		intervalCount = 0;
+		for (int i = 0; i < occluders.size; i++) {
+			if (!light.acceptOccluder(occluders, i)) continue;
+			addIntervals(i, startAngle, spanAngle);
+		}
+	}
+
+	/** @return if occluders cover the same intervals as in last sweep **/
+	private boolean sameIntervals() {
+		if (intervalCount != previousCount) return false;
+		for (int k = 0; k < intervalCount; k++) {
+			if (intervalKey[k] != previousKey[k]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the sweep over sorted events
+	 */
+	private void run(int arcSamples) {
+		count = 0;
+		activeCount = 0;
+		for (int k = 0; k < intervalCount; k++) {
+			if (intervalStart[k] == 0f && !intervalInert[k]) {
+				activate(intervalOccluder[k]);
+			}
+		}
+
+		if (arcSamples < 2) arcSamples = 2;
+		final float sampleStep = spanAngle / (arcSamples - 1);
+		lastAngle = 0f;
+		closest(0f);
+		current = closestOccluder;
+		int sample = 0;
+		int event = 0;
+		while (sample < arcSamples || event < eventCount) {
+			event = skipInert(event);
+			final float sampleAngle = sample < arcSamples ?
+					sample * sampleStep : Float.POSITIVE_INFINITY;
+			final float nextEvent = event < eventCount ?
+					eventAngle[event] : Float.POSITIVE_INFINITY;
+
+			if (nextEvent > spanAngle && sample >= arcSamples) break;
+
+			if (sampleAngle < nextEvent) {
+				final float f = closest(sampleAngle);
+				bridge(sampleAngle, closestOccluder);
+				emit(sampleAngle, f);
+				current = closestOccluder;
+				lastAngle = sampleAngle;
+				sample++;
+				continue;
+			}
+
+			// occluders ending or starting at this angle change the closest
+			// hit, both the hit before and after the change are vertices
+			final float before = closest(nextEvent);
+			bridge(nextEvent, closestOccluder);
+			while (event < eventCount && eventAngle[event] == nextEvent) {
+				final int interval = eventInterval[event++];
+				if (intervalInert[interval >= 0 ? interval : ~interval]) {
+					continue;
+				} else if (interval >= 0) {
+					activate(intervalOccluder[interval]);
+				} else {
+					deactivate(intervalOccluder[~interval]);
+				}
+			}
+			final float after = closest(nextEvent);
+			emit(nextEvent, before);
+			if (Math.abs(after - before) > ENDPOINT_EPSILON) {
+				emit(nextEvent, after);
+			}
+			current = closestOccluder;
+			lastAngle = nextEvent;
+			if (sampleAngle == nextEvent) sample++;
+		}
+	}
+
+	/** @return index of the first event from given one that isn't inert **/
+	private int skipInert(int event) {
+		while (event < eventCount) {
+			final int interval = eventInterval[event];
+			if (!intervalInert[interval >= 0 ? interval : ~interval]) break;
+			event++;
+		}
+		return event;
+	}
+
+	/**
+	 * Adds vertices between last emitted angle and given angle where the
+	 * closest surface changes without an event: at crossings of occluders,
+	 * and where occluders leave the light distance. Visible faces of circle
+	 * occluders are sampled too.
+	 */
+	private void bridge(float to, int target) {
+		for (int k = 0; k < 4 && current != target; k++) {
+			final float crossing = crossing(current, target, lastAngle, to);
+			if (crossing != crossing) break;
+
+			emit(crossing, closest(crossing));
+			lastAngle = crossing;
+			current = target;
+		}
+
+		if (current >= 0 && current == target &&
+			occluders.type[current] == Occluders.CIRCLE) {
+			final float cx = occluders.x1[current] - originX;
+			final float cy = occluders.y1[current] - originY;
+			final float d = (float)Math.sqrt(cx * cx + cy * cy);
+			final float step = MathUtils.PI2 * occluders.x2[current] /
+					(d * RayHandler.CIRCLE_APPROX_POINTS);
+			for (float a = lastAngle + step; a < to - step * 0.5f; a += step) {
+				emit(a, closest(a));
+			}
+		}
+	}
+
+	/**
+	 * @return relative angle in (from, to) at which surfaces p and q meet,
+	 *         NaN if there is none; surface -1 is the light distance circle
+	 */
+	private float crossing(int p, int q, float from, float to) {
+		if (p < 0) {
+			p = q;
+			q = -1;
+		}
+		final Occluders o = occluders;
+		int found;
+		if (o.type[p] == Occluders.CIRCLE) {
+			if (q < 0) {
+				found = circleCircle(o.x1[p] - originX, o.y1[p] - originY,
+						o.x2[p], 0f, 0f, radius);
+			} else if (o.type[q] == Occluders.CIRCLE) {
+				found = circleCircle(o.x1[p] - originX, o.y1[p] - originY,
+						o.x2[p], o.x1[q] - originX, o.y1[q] - originY,
+						o.x2[q]);
+			} else {
+				found = segmentCircle(q, o.x1[p] - originX, o.y1[p] - originY,
+						o.x2[p]);
+			}
+		} else if (q < 0) {
+			found = segmentCircle(p, 0f, 0f, radius);
+		} else if (o.type[q] == Occluders.CIRCLE) {
+			found = segmentCircle(p, o.x1[q] - originX, o.y1[q] - originY,
+					o.x2[q]);
+		} else {
+			found = segmentSegment(p, q);
+		}
+
+		for (int k = 0; k < found; k++) {
+			final float a = normalize((float)Math.atan2(
+					pointY[k], pointX[k]) - startAngle);
+			if (a > from && a < to) return a;
+		}
+		return Float.NaN;
+	}
+
+	/** @return number of intersection points stored to point arrays **/
+	private int segmentSegment(int p, int q) {
+		final Occluders o = occluders;
+		final float ax = o.x1[p] - originX;
+		final float ay = o.y1[p] - originY;
+		final float ex = o.x2[p] - o.x1[p];
+		final float ey = o.y2[p] - o.y1[p];
+		final float bx = o.x1[q] - originX;
+		final float by = o.y1[q] - originY;
+		final float fx = o.x2[q] - o.x1[q];
+		final float fy = o.y2[q] - o.y1[q];
+		final float denominator = ex * fy - ey * fx;
+		if (denominator == 0f) return 0;
+
+		final float s = ((bx - ax) * fy - (by - ay) * fx) / denominator;
+		final float t = ((bx - ax) * ey - (by - ay) * ex) / denominator;
+		if (s < 0f || s > 1f || t < 0f || t > 1f) return 0;
+
+		pointX[0] = ax + s * ex;
+		pointY[0] = ay + s * ey;
+		return 1;
+	}
+
+	/** @return number of intersection points stored to point arrays **/
+	private int segmentCircle(int p, float cx, float cy, float r) {
+		final Occluders o = occluders;
+		final float ax = o.x1[p] - originX - cx;
+		final float ay = o.y1[p] - originY - cy;
+		final float ex = o.x2[p] - o.x1[p];
+		final float ey = o.y2[p] - o.y1[p];
+		final float a = ex * ex + ey * ey;
+		final float b = ax * ex + ay * ey;
+		final float c = ax * ax + ay * ay - r * r;
+		final float discriminant = b * b - a * c;
+		if (a == 0f || discriminant < 0f) return 0;
+
+		final float root = (float)Math.sqrt(discriminant);
+		int found = 0;
+		for (int k = -1; k <= 1; k += 2) {
+			final float s = (-b + k * root) / a;
+			if (s < 0f || s > 1f) continue;
+			pointX[found] = cx + ax + s * ex;
+			pointY[found] = cy + ay + s * ey;
+			found++;
+		}
+		return found;
+	}
+
+	/** @return number of intersection points stored to point arrays **/
+	private int circleCircle(float ax, float ay, float ar,
+			float bx, float by, float br) {
+		final float dx = bx - ax;
+		final float dy = by - ay;
+		final float d2 = dx * dx + dy * dy;
+		final float d = (float)Math.sqrt(d2);
+		if (d == 0f || d > ar + br || d < Math.abs(ar - br)) return 0;
+
+		final float along = (d2 + ar * ar - br * br) / (2f * d);
+		final float h = (float)Math.sqrt(Math.max(0f, ar * ar - along * along));
+		final float mx = ax + along * dx / d;
+		final float my = ay + along * dy / d;
+		pointX[0] = mx - h * dy / d;
+		pointY[0] = my + h * dx / d;
+		pointX[1] = mx + h * dy / d;
+		pointY[1] = my - h * dx / d;
+		return 2;
+	}
+
+	/**
+	 * @return fraction of the closest active occluder hit at given angle
+	 *         relative to sweep start, the occluder is stored to
+	 *         {@link #closestOccluder}
+	 */
+	private float closest(float relativeAngle) {
+		final float a = startAngle + relativeAngle;
+		final float dx = (float)Math.cos(a) * radius;
+		final float dy = (float)Math.sin(a) * radius;
+		float best = 1f;
+		closestOccluder = -1;
+		for (int k = 0; k < activeCount; k++) {
+			final float f = intersect(active[k], dx, dy, best);
+			if (f < best) {
+				best = f;
+				closestOccluder = active[k];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Ray test that tolerates endpoint misses caused by rounding, since
+	 * rays at interval events are aimed exactly at occluder endpoints
+	 */
+	private float intersect(int i, float dx, float dy, float maxFraction) {
+		final Occluders o = occluders;
+		if (o.type[i] == Occluders.CIRCLE) {
+			final float t = o.intersect(
+					i, originX, originY, dx, dy, maxFraction);
+			if (t < maxFraction) return t;
+			// tangent rays may miss the circle by rounding
+			final float cx = o.x1[i] - originX;
+			final float cy = o.y1[i] - originY;
+			final float along = (cx * dx + cy * dy) / (dx * dx + dy * dy);
+			final float r = o.x2[i];
+			final float ex = cx - along * dx;
+			final float ey = cy - along * dy;
+			if (along > 0f && along < maxFraction &&
+				ex * ex + ey * ey <= r * r * (1f + ENDPOINT_EPSILON)) {
+				return along;
+			}
+			return maxFraction;
+		}
+
+		final float ax = o.x1[i] - originX;
+		final float ay = o.y1[i] - originY;
+		final float ex = o.x2[i] - o.x1[i];
+		final float ey = o.y2[i] - o.y1[i];
+		final float denominator = ey * dx - ex * dy;
+		if (denominator == 0f) return maxFraction;
+
+		final float t = (ey * ax - ex * ay) / denominator;
+		if (t < 0f || t > maxFraction) return maxFraction;
+
+		final float rr = ex * ex + ey * ey;
+		final float s = ((t * dx - ax) * ex + (t * dy - ay) * ey) / rr;
+		// overshoot measured as distance, short segments need it too
+		final float tolerance = radius * ENDPOINT_EPSILON;
+		final float over = s < 0f ? s : (s > 1f ? s - 1f : 0f);
+		if (over * over * rr > tolerance * tolerance) return maxFraction;
+
+		return t;
+	}
+
+	/**
+	 * Adds angular interval covered by occluder, split in two if it wraps
+	 * over the sweep start
+	 */
+	private void addIntervals(int i, float startAngle, float spanAngle) {
+		final Occluders o = occluders;
+		float from;
+		float to;
+		boolean inert;
+		if (o.type[i] == Occluders.CIRCLE) {
+			final float cx = o.x1[i] - originX;
+			final float cy = o.y1[i] - originY;
+			final float r = o.x2[i];
+			final float d2 = cx * cx + cy * cy;
+			// light inside of circle is never shadowed by it
+			if (d2 <= r * r) return;
+			final float d = (float)Math.sqrt(d2);
+			if (d - r > reach) return;
+			inert = d - r > radius;
+			final float center = (float)Math.atan2(cy, cx);
+			final float half = (float)Math.asin(r / d);
+			from = normalize(center - half - startAngle);
+			to = normalize(center + half - startAngle);
+		} else {
+			final float ax = o.x1[i] - originX;
+			final float ay = o.y1[i] - originY;
+			final float bx = o.x2[i] - originX;
+			final float by = o.y2[i] - originY;
+			final float cross = ax * by - ay * bx;
+			// segments pointing to the light have no width
+			if (cross == 0f) return;
+			// polygon edges facing away from light are hidden behind others
+			if (o.type[i] == Occluders.POLYGON_EDGE && cross > 0f) return;
+			final float distance2 = segmentDistance2(ax, ay, bx, by);
+			if (distance2 > reach * reach) return;
+			inert = distance2 > radius * radius;
+
+			// endpoint angles are computed the same way for every occluder,
+			// so shared polygon vertices give exactly equal events
+			final float angleA = normalize(
+					(float)Math.atan2(ay, ax) - startAngle);
+			final float angleB = normalize(
+					(float)Math.atan2(by, bx) - startAngle);
+			from = cross > 0f ? angleA : angleB;
+			to = cross > 0f ? angleB : angleA;
+		}
+
+		if (from == to) return;
+		if (to < from) {
+			addInterval(i, 0f, to, inert);
+			if (from <= spanAngle) addInterval(i, from, MathUtils.PI2, inert);
+		} else if (from <= spanAngle) {
+			addInterval(i, from, to, inert);
+		}
+	}
+
+	private void addInterval(int occluder, float from, float to,
+			boolean inert) {
+		if (intervalCount == intervalOccluder.length) {
+			final int capacity = intervalCount * 2;
+			intervalOccluder = Occluders.copyOf(intervalOccluder, capacity);
+			intervalStart = Occluders.copyOf(intervalStart, capacity);
+			intervalEnd = Occluders.copyOf(intervalEnd, capacity);
+			intervalKey = Occluders.copyOf(intervalKey, capacity);
+			intervalInert = Occluders.copyOf(intervalInert, capacity);
+			previousKey = Occluders.copyOf(previousKey, capacity);
+		}
+		final int interval = intervalCount++;
+		intervalOccluder[interval] = occluder;
+		intervalStart[interval] = from;
+		intervalEnd[interval] = to;
+		intervalInert[interval] = inert;
+		intervalKey[interval] = from == 0f ? ~occluder : occluder;
+	}
+
+	/** Adds start and end events of all intervals **/
+	private void addEvents() {
+		eventCount = 0;
+		for (int k = 0; k < intervalCount; k++) {
+			if (intervalStart[k] != 0f) addEvent(intervalStart[k], k);
+			addEvent(intervalEnd[k], ~k);
+		}
+	}
+
+	private void addEvent(float a, int interval) {
+		if (eventCount == eventAngle.length) {
+			final int capacity = eventCount * 2;
+			eventAngle = Occluders.copyOf(eventAngle, capacity);
+			eventInterval = Occluders.copyOf(eventInterval, capacity);
+		}
+		eventAngle[eventCount] = a;
+		eventInterval[eventCount] = interval;
+		eventCount++;
+	}
+
+	/**
+	 * Sorts events that are mostly in order, falls back to full sort if
+	 * too many of them moved
+	 *
+	 * @return number of event moves
+	 */
+	private int resortEvents() {
+		final float[] keys = eventAngle;
+		final int[] values = eventInterval;
+		final int n = eventCount;
+		final int limit = n * 4;
+		int moves = 0;
+		for (int i = 1; i < n; i++) {
+			final float key = keys[i];
+			if (keys[i - 1] <= key) continue;
+			final int value = values[i];
+			int j = i - 1;
+			while (j >= 0 && keys[j] > key) {
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				j--;
+				moves++;
+			}
+			keys[j + 1] = key;
+			values[j + 1] = value;
+			if (moves > limit) {
+				sortEvents();
+				return moves;
+			}
+		}
+		return moves;
+	}
+
+	/** Insertion sort for small inputs, heap sort otherwise **/
+	private void sortEvents() {
+		final float[] keys = eventAngle;
+		final int[] values = eventInterval;
+		final int n = eventCount;
+		if (n < 32) {
+			for (int i = 1; i < n; i++) {
+				final float key = keys[i];
+				final int value = values[i];
+				int j = i - 1;
+				while (j >= 0 && keys[j] > key) {
+					keys[j + 1] = keys[j];
+					values[j + 1] = values[j];
+					j--;
+				}
+				keys[j + 1] = key;
+				values[j + 1] = value;
+			}
+			return;
+		}
+		for (int i = n / 2 - 1; i >= 0; i--) {
+			siftDown(i, n);
+		}
+		for (int end = n - 1; end > 0; end--) {
+			swapEvents(0, end);
+			siftDown(0, end);
+		}
+	}
+
+	private void siftDown(int i, int n) {
+		final float[] keys = eventAngle;
+		while (true) {
+			int largest = i;
+			final int left = 2 * i + 1;
+			final int right = left + 1;
+			if (left < n && keys[left] > keys[largest]) largest = left;
+			if (right < n && keys[right] > keys[largest]) largest = right;
+			if (largest == i) return;
+			swapEvents(i, largest);
+			i = largest;
+		}
+	}
+
+	private void swapEvents(int a, int b) {
+		final float key = eventAngle[a];
+		eventAngle[a] = eventAngle[b];
+		eventAngle[b] = key;
+		final int value = eventInterval[a];
+		eventInterval[a] = eventInterval[b];
+		eventInterval[b] = value;
+	}
+
+	private void activate(int occluder) {
+		if (activeCount == active.length) {
+			active = Occluders.copyOf(active, activeCount * 2);
+		}
+		active[activeCount++] = occluder;
+	}
+
+	private void deactivate(int occluder) {
+		for (int k = 0; k < activeCount; k++) {
+			if (active[k] == occluder) {
+				active[k] = active[--activeCount];
+				return;
+			}
+		}
+	}
+
+	private void emit(float relativeAngle, float f) {
+		if (count == angle.length) {
+			angle = Occluders.copyOf(angle, count * 2);
+			fraction = Occluders.copyOf(fraction, count * 2);
+		}
+		angle[count] = startAngle + relativeAngle;
+		fraction[count] = f;
+		count++;
+	}
+
+	/** @return squared distance from origin to segment ab **/
+	private static float segmentDistance2(float ax, float ay,
+			float bx, float by) {
+		final float ex = bx - ax;
+		final float ey = by - ay;
+		final float len2 = ex * ex + ey * ey;
+		float t = len2 > 0f ? -(ax * ex + ay * ey) / len2 : 0f;
+		t = MathUtils.clamp(t, 0f, 1f);
+		final float px = ax + t * ex;
+		final float py = ay + t * ey;
+		return px * px + py * py;
+	}
+
+	/** @return angle wrapped to [0, 2PI) **/
+	private static float normalize(float a) {
+		a %= MathUtils.PI2;
+		return a < 0f ? a + MathUtils.PI2 : a;
+	}
+
+}
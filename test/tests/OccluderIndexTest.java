@@ -0,0 +1,72 @@
+package tests;
+
+import box2dLight.PointLight;
+import box2dLight.RayHandler;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.World;
+
+/**
+ * Replaces a wall every second by destroying it and creating another one
+ * in the same frame, Box2D reuses the pooled body and fixture objects, so
+ * the occluder index must notice the new shape by itself
+ */
+public class OccluderIndexTest extends ApplicationAdapter {
+	/** the camera **/
+	OrthographicCamera camera;
+	RayHandler rayHandler;
+	World world;
+	Body wall;
+	float time;
+
+	@Override
+	public void create() {
+		camera = new OrthographicCamera(48, 32);
+		camera.update();
+		world = new World(new Vector2(0, -10), true);
+		rayHandler = new RayHandler(world);
+		rayHandler.setOccluderIndex(true);
+		new PointLight(rayHandler, 128, null, 20, 0, 0);
+		wall = createWall();
+	}
+
+	Body createWall() {
+		BodyDef def = new BodyDef();
+		def.position.set(MathUtils.random(-12f, 12f), MathUtils.random(-8f, 8f));
+		def.angle = MathUtils.random(MathUtils.PI);
+		Body body = world.createBody(def);
+		PolygonShape shape = new PolygonShape();
+		shape.setAsBox(MathUtils.random(0.5f, 4f), MathUtils.random(0.5f, 2f));
+		body.createFixture(shape, 0);
+		shape.dispose();
+		return body;
+	}
+
+	@Override
+	public void render() {
+		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+		time += Gdx.graphics.getDeltaTime();
+		if (time > 1f) {
+			time = 0f;
+			world.destroyBody(wall);
+			wall = createWall();
+		}
+		world.step(Gdx.graphics.getDeltaTime(), 8, 3);
+		rayHandler.setCombinedMatrix(camera.combined);
+		rayHandler.updateAndRender();
+	}
+
+	@Override
+	public void dispose() {
+		rayHandler.dispose();
+		world.dispose();
+	}
+}
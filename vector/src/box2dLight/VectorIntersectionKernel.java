@@ -0,0 +1,114 @@
+package box2dLight;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Ray versus primitive intersection kernel using the incubating Vector API
+ *
+ * <p>Rays are processed in lanes of the preferred vector species, 8 rays
+ * per instruction with AVX2 and 16 with AVX-512, remaining rays go through
+ * the scalar kernel. Every lane evaluates the same expressions in the same
+ * order as the scalar kernel, so hit fractions are bit-identical.
+ *
+ * <p>Needs Java 16 or newer started with
+ * {@code --add-modules jdk.incubator.vector}. Install it once before lights
+ * are updated.
+ */
+public final class VectorIntersectionKernel extends IntersectionKernel {
+
+	static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	/**
+	 * Makes all lights cast their ray fans with this kernel
+	 */
+	public static void install() {
+		IntersectionKernel.instance = new VectorIntersectionKernel();
+	}
+
+	/**
+	 * Makes all lights cast their ray fans with the scalar kernel again
+	 */
+	public static void uninstall() {
+		IntersectionKernel.instance = new IntersectionKernel();
+	}
+
+	/**
+	 * @return number of rays intersected per instruction
+	 */
+	public static int getLanes() {
+		return SPECIES.length();
+	}
+
+	@Override
+	void segment(float px, float py, float[] offsetX, float[] offsetY,
+			float[] fraction, int from, int to, float ax, float ay,
+			float bx, float by, boolean oneSided) {
+		final float ex = bx - ax;
+		final float ey = by - ay;
+		final float rr = ex * ex + ey * ey;
+		if (rr == 0f) return;
+		final float numerator = ey * (ax - px) - ex * (ay - py);
+
+		final int bound = from + SPECIES.loopBound(to - from);
+		int r = from;
+		for (; r < bound; r += SPECIES.length()) {
+			final FloatVector dx = FloatVector.fromArray(SPECIES, offsetX, r);
+			final FloatVector dy = FloatVector.fromArray(SPECIES, offsetY, r);
+			final FloatVector denominator = dx.mul(ey).sub(dy.mul(ex));
+			final FloatVector t = FloatVector.broadcast(SPECIES, numerator)
+					.div(denominator);
+			final FloatVector s = t.mul(dx).add(px).sub(ax).mul(ex)
+					.add(t.mul(dy).add(py).sub(ay).mul(ey)).div(rr);
+			final FloatVector f = FloatVector.fromArray(SPECIES, fraction, r);
+			// operators must be constant for the JIT to emit vector code
+			final VectorMask<Float> facing = oneSided ?
+					denominator.compare(VectorOperators.LT, 0f) :
+					denominator.compare(VectorOperators.NE, 0f);
+			final VectorMask<Float> hit = facing
+					.and(t.compare(VectorOperators.GE, 0f))
+					.and(t.compare(VectorOperators.LE, f))
+					.and(s.compare(VectorOperators.GE, 0f))
+					.and(s.compare(VectorOperators.LE, 1f));
+			f.blend(t, hit).intoArray(fraction, r);
+		}
+		if (r < to) {
+			super.segment(px, py, offsetX, offsetY, fraction, r, to,
+					ax, ay, bx, by, oneSided);
+		}
+	}
+
+	@Override
+	void circle(float px, float py, float[] offsetX, float[] offsetY,
+			float[] fraction, int from, int to, float cx, float cy,
+			float radius) {
+		final float sx = px - cx;
+		final float sy = py - cy;
+		final float b = sx * sx + sy * sy - radius * radius;
+
+		final int bound = from + SPECIES.loopBound(to - from);
+		int r = from;
+		for (; r < bound; r += SPECIES.length()) {
+			final FloatVector dx = FloatVector.fromArray(SPECIES, offsetX, r);
+			final FloatVector dy = FloatVector.fromArray(SPECIES, offsetY, r);
+			final FloatVector c = dx.mul(sx).add(dy.mul(sy));
+			final FloatVector rr = dx.mul(dx).add(dy.mul(dy));
+			final FloatVector sigma = c.mul(c).sub(rr.mul(b));
+			final FloatVector a = c.add(sigma.sqrt()).neg();
+			final FloatVector f = FloatVector.fromArray(SPECIES, fraction, r);
+			final VectorMask<Float> hit = sigma
+					.compare(VectorOperators.GE, 0f)
+					.and(rr.compare(VectorOperators.GE, 1.1920929E-7f))
+					.and(a.compare(VectorOperators.GE, 0f))
+					.and(a.compare(VectorOperators.LE, f.mul(rr)));
+			f.blend(a.div(rr), hit).intoArray(fraction, r);
+		}
+		if (r < to) {
+			super.circle(px, py, offsetX, offsetY, fraction, r, to,
+					cx, cy, radius);
+		}
+	}
+
+}